@@ -3,14 +3,36 @@ package com.udacity.stockhawk.data;
 
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 
 import com.google.common.collect.ImmutableList;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
 public final class Contract {
 
-    static final String AUTHORITY = "com.udacity.stockhawk";
+    public static final String AUTHORITY = "com.udacity.stockhawk";
     static final String PATH_QUOTE = "quote";
     static final String PATH_QUOTE_WITH_SYMBOL = "quote/*";
+    static final String PATH_HISTORY = "history";
+    static final String PATH_QUOTE_HISTORY = "quote/*/history";
+    static final String PATH_SUMMARY = "summary";
+    static final String PATH_WATCHLIST = "watchlist";
+    static final String PATH_WATCHLIST_WITH_SYMBOL = "watchlist/*";
+    static final String PATH_SYMBOL = "symbol";
+    static final String PATH_SYMBOL_WITH_SYMBOL = "symbol/*";
+    static final String PATH_TICK = "tick";
+    /**
+     * Provider call removing the quotes and history of symbols that are no longer watched and
+     * returning the freed pages to the file system.
+     */
+    public static final String METHOD_COMPACT = "compact";
+    /**
+     * Provider call counting one more view of the watched symbol passed as its argument.
+     */
+    public static final String METHOD_RECORD_VIEW = "record_view";
     private static final Uri BASE_URI = Uri.parse("content://" + AUTHORITY);
 
     private Contract() {
@@ -20,24 +42,29 @@ public final class Contract {
     public static final class Quote implements BaseColumns {
 
         public static final Uri URI = BASE_URI.buildUpon().appendPath(PATH_QUOTE).build();
+        /**
+         * The rows lists show, limited to {@link #SUMMARY_COLUMNS} so a long watchlist fits in
+         * one cursor window. Every write notifies it once, with the changed symbols in the
+         * uri, see {@link #getChangedSymbols}.
+         */
+        public static final Uri SUMMARY_URI = BASE_URI.buildUpon().appendPath(PATH_SUMMARY).build();
         public static final String COLUMN_SYMBOL = "symbol";
         public static final String COLUMN_PRICE = "price";
         public static final String COLUMN_ABSOLUTE_CHANGE = "absolute_change";
         public static final String COLUMN_PERCENTAGE_CHANGE = "percentage_change";
-        public static final String COLUMN_HISTORY = "history";
+        public static final String COLUMN_FINGERPRINT = "fingerprint";
+        static final String PARAM_CHANGED = "changed";
         public static final int POSITION_ID = 0;
         public static final int POSITION_SYMBOL = 1;
         public static final int POSITION_PRICE = 2;
         public static final int POSITION_ABSOLUTE_CHANGE = 3;
         public static final int POSITION_PERCENTAGE_CHANGE = 4;
-        public static final int POSITION_HISTORY = 5;
-        public static final ImmutableList<String> QUOTE_COLUMNS = ImmutableList.of(
+        public static final ImmutableList<String> SUMMARY_COLUMNS = ImmutableList.of(
                 _ID,
                 COLUMN_SYMBOL,
                 COLUMN_PRICE,
                 COLUMN_ABSOLUTE_CHANGE,
-                COLUMN_PERCENTAGE_CHANGE,
-                COLUMN_HISTORY
+                COLUMN_PERCENTAGE_CHANGE
         );
         static final String TABLE_NAME = "quotes";
 
@@ -49,7 +76,158 @@ public final class Contract {
             return queryUri.getLastPathSegment();
         }
 
+        static Uri makeUriForChanges(Collection<String> symbols) {
+            return SUMMARY_URI.buildUpon()
+                    .appendQueryParameter(PARAM_CHANGED, TextUtils.join(",", symbols))
+                    .build();
+        }
+
+        /**
+         * The symbols a change notification of {@link #SUMMARY_URI} is about, or null if any
+         * of them may have changed.
+         */
+        public static List<String> getChangedSymbols(Uri changeUri) {
+            String changed = changeUri != null ? changeUri.getQueryParameter(PARAM_CHANGED) : null;
+            return changed != null ? Arrays.asList(TextUtils.split(changed, ",")) : null;
+        }
+
+
+    }
 
+    /**
+     * The symbols the user watches, in the order they are listed, with the state of their last
+     * sync. Removing a symbol also removes its quote and history.
+     */
+    public static final class Watchlist {
+
+        public static final Uri URI = BASE_URI.buildUpon().appendPath(PATH_WATCHLIST).build();
+        public static final String COLUMN_SYMBOL = "symbol";
+        public static final String COLUMN_SORT_ORDER = "sort_order";
+        public static final String COLUMN_ADDED_AT = "added_at";
+        public static final String COLUMN_FAILURES = "failures";
+        // When a symbol that failed may be synced again.
+        public static final String COLUMN_RETRY_AT = "retry_at";
+        public static final String COLUMN_ERROR = "error";
+        public static final String COLUMN_HISTORY_AT = "history_at";
+        public static final String COLUMN_VIEWS = "views";
+        static final String TABLE_NAME = "watchlist";
+
+        private Watchlist() {
+        }
+
+        public static Uri makeUriForSymbol(String symbol) {
+            return URI.buildUpon().appendPath(symbol).build();
+        }
+
+        static String getSymbolFromUri(Uri uri) {
+            return uri.getLastPathSegment();
+        }
+    }
+
+    /**
+     * The directory of known symbols with their company name and exchange. It is bundled with
+     * the app and can be updated by bulk inserting rows into {@link #URI}, which replace the
+     * ones of the same symbol. Search it with {@link #makeUriForSearch}, look a symbol up with
+     * {@link #makeUriForSymbol}.
+     */
+    public static final class Symbol implements BaseColumns {
+
+        public static final Uri URI = BASE_URI.buildUpon().appendPath(PATH_SYMBOL).build();
+        public static final String COLUMN_SYMBOL = "symbol";
+        public static final String COLUMN_NAME = "name";
+        public static final String COLUMN_EXCHANGE = "exchange";
+        public static final String PARAM_QUERY = "q";
+        public static final String PARAM_LIMIT = "limit";
+        public static final ImmutableList<String> COLUMNS = ImmutableList.of(
+                _ID,
+                COLUMN_SYMBOL,
+                COLUMN_NAME,
+                COLUMN_EXCHANGE
+        );
+        static final String TABLE_NAME = "symbols";
+
+        private Symbol() {
+        }
+
+        /**
+         * Symbols starting with the words of the query, or company names with words starting
+         * with them, then symbols that are a typo away from it.
+         */
+        public static Uri makeUriForSearch(String query, int limit) {
+            return URI.buildUpon()
+                    .appendQueryParameter(PARAM_QUERY, query)
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        public static Uri makeUriForSymbol(String symbol) {
+            return URI.buildUpon().appendPath(symbol).build();
+        }
+
+        static String getSymbolFromUri(Uri uri) {
+            return uri.getLastPathSegment();
+        }
+    }
+
+    /**
+     * Price history, one row per bar. Bars are read and written per symbol and resolution
+     * through {@link #makeUriForHistory}, optionally limited to a range of timestamps.
+     */
+    public static final class History {
+
+        public static final String COLUMN_SYMBOL = "symbol";
+        public static final String COLUMN_RESOLUTION = "resolution";
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+        public static final String COLUMN_OPEN = "open";
+        public static final String COLUMN_HIGH = "high";
+        public static final String COLUMN_LOW = "low";
+        public static final String COLUMN_CLOSE = "close";
+        public static final String COLUMN_VOLUME = "volume";
+        public static final int RESOLUTION_DAILY = 0;
+        public static final int RESOLUTION_WEEKLY = 1;
+        public static final int RESOLUTION_MONTHLY = 2;
+        public static final String PARAM_RESOLUTION = "resolution";
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+        static final String TABLE_NAME = "history";
+
+        private History() {
+        }
+
+        /**
+         * The bars of a symbol at a resolution, from and to included.
+         */
+        public static Uri makeUriForHistory(String symbol, int resolution, long from, long to) {
+            return makeUriForHistory(symbol, resolution).buildUpon()
+                    .appendQueryParameter(PARAM_FROM, String.valueOf(from))
+                    .appendQueryParameter(PARAM_TO, String.valueOf(to))
+                    .build();
+        }
+
+        /**
+         * All bars of a symbol at a resolution.
+         */
+        public static Uri makeUriForHistory(String symbol, int resolution) {
+            return Quote.makeUriForStock(symbol).buildUpon()
+                    .appendPath(PATH_HISTORY)
+                    .appendQueryParameter(PARAM_RESOLUTION, String.valueOf(resolution))
+                    .build();
+        }
+
+        static String getStockFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /**
+     * Live price updates. Inserting ticks updates the price columns of the matching quote rows.
+     */
+    public static final class Tick {
+
+        public static final Uri URI = BASE_URI.buildUpon().appendPath(PATH_TICK).build();
+
+        private Tick() {
+        }
     }
 
 }
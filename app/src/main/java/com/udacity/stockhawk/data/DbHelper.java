@@ -1,42 +1,390 @@
 package com.udacity.stockhawk.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
 
+import com.google.common.base.Charsets;
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.Contract.History;
 import com.udacity.stockhawk.data.Contract.Quote;
+import com.udacity.stockhawk.data.Contract.Watchlist;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import au.com.bytecode.opencsv.CSVReader;
+import timber.log.Timber;
 
 
 class DbHelper extends SQLiteOpenHelper {
 
 
     private static final String NAME = "StockHawk.db";
-    private static final int VERSION = 1;
+    private static final int VERSION = 9;
+    private static final String HISTORY_TRIGGER = Quote.TABLE_NAME + "_delete_history";
+    private static final String WATCHLIST_TRIGGER = Watchlist.TABLE_NAME + "_delete_quote";
+    // What PRAGMA auto_vacuum reads once the database is in incremental mode.
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Where the sync state of every symbol was kept up to version 7, one key per field.
+    private static final String V7_SYNC_STATE_PREFS = "sync_state";
+    private static final String[] V7_SYNC_STATE_KEYS = {
+            ".failures", ".retry_at", ".error", ".history_at", ".views"
+    };
+    private static final String[] V7_SYNC_STATE_COLUMNS = {
+            Watchlist.COLUMN_FAILURES,
+            Watchlist.COLUMN_RETRY_AT,
+            Watchlist.COLUMN_ERROR,
+            Watchlist.COLUMN_HISTORY_AT,
+            Watchlist.COLUMN_VIEWS
+    };
 
+    // The CSV history columns of version 4, one per resolution.
+    private static final String[] V4_HISTORY_COLUMNS = {"history_daily", "history", "history_monthly"};
+    private static final int[] V4_HISTORY_RESOLUTIONS = {
+            History.RESOLUTION_DAILY,
+            History.RESOLUTION_WEEKLY,
+            History.RESOLUTION_MONTHLY
+    };
+
+
+    private final Context context;
+    private boolean legacyPrefsMoved;
 
     DbHelper(Context context) {
         super(context, NAME, null, VERSION);
+        this.context = context;
+        // Readers (the list, the widget) keep going while the sync writes.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // With the write-ahead log this can't corrupt the database, a crash only loses the
+        // last commits, which the next sync writes again.
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        // Takes effect on a new database, older ones are switched by the first compact().
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        String builder = "CREATE TABLE " + Quote.TABLE_NAME + " ("
+        createQuoteTable(db, Quote.TABLE_NAME);
+        createHistoryTable(db);
+        HistoryStore.createSegmentTable(db);
+        createHistoryTrigger(db);
+        createWatchlistTable(db);
+        moveWatchlistToTable(db);
+        SymbolDirectory.createTable(db);
+        loadSymbolDirectory(db);
+    }
+
+    /**
+     * Takes the schema one version at a time from the old version to the current one. Every
+     * step keeps the rows it finds, so an app update never drops the cached quotes and history
+     * and the next sync doesn't have to download them all again.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion; version < newVersion; version++) {
+            Timber.d("Upgrading the database from version %d", version);
+            upgradeFrom(db, version);
+        }
+    }
+
+    private void upgradeFrom(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 1:
+                addColumn(db, Quote.COLUMN_FINGERPRINT, "INTEGER NOT NULL DEFAULT 0");
+                break;
+            case 2:
+                // Only the default of the history column changed, the table is rebuilt at 6.
+                break;
+            case 3:
+                addColumn(db, V4_HISTORY_COLUMNS[0], "TEXT NOT NULL DEFAULT ''");
+                addColumn(db, V4_HISTORY_COLUMNS[2], "TEXT NOT NULL DEFAULT ''");
+                break;
+            case 4:
+                moveHistoryToTable(db);
+                break;
+            case 5:
+                HistoryStore.createSegmentTable(db);
+                HistoryStore.sealAll(db);
+                break;
+            case 6:
+                rebuildQuoteTable(db);
+                break;
+            case 7:
+                createWatchlistTable(db);
+                moveWatchlistToTable(db);
+                break;
+            case 8:
+                // A newer bundled directory comes with a step that loads it again.
+                SymbolDirectory.createTable(db);
+                loadSymbolDirectory(db);
+                break;
+            default:
+                throw new IllegalStateException("No upgrade from database version " + version);
+        }
+    }
+
+    private static void addColumn(SQLiteDatabase db, String column, String definition) {
+        db.execSQL("ALTER TABLE " + Quote.TABLE_NAME + " ADD COLUMN " + column + " " + definition);
+    }
+
+    private static void createQuoteTable(SQLiteDatabase db, String name) {
+        String builder = "CREATE TABLE " + name + " ("
                 + Quote._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + Quote.COLUMN_SYMBOL + " TEXT NOT NULL, "
                 + Quote.COLUMN_PRICE + " REAL NOT NULL, "
                 + Quote.COLUMN_ABSOLUTE_CHANGE + " REAL NOT NULL, "
                 + Quote.COLUMN_PERCENTAGE_CHANGE + " REAL NOT NULL, "
-                + Quote.COLUMN_HISTORY + " TEXT NOT NULL, "
-                + "UNIQUE (" + Quote.COLUMN_SYMBOL + ") ON CONFLICT REPLACE);";
+                + Quote.COLUMN_FINGERPRINT + " INTEGER NOT NULL DEFAULT 0, "
+                + "UNIQUE (" + Quote.COLUMN_SYMBOL + "));";
 
         db.execSQL(builder);
+    }
+
+    /**
+     * History is clustered on its key, so the primary key is the covering index: reading a
+     * range of bars is one scan over adjacent pages and appending a bar is one insert.
+     */
+    private static void createHistoryTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + History.TABLE_NAME + " ("
+                + History.COLUMN_SYMBOL + " TEXT NOT NULL, "
+                + History.COLUMN_RESOLUTION + " INTEGER NOT NULL, "
+                + History.COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + History.COLUMN_OPEN + " REAL NOT NULL, "
+                + History.COLUMN_HIGH + " REAL NOT NULL, "
+                + History.COLUMN_LOW + " REAL NOT NULL, "
+                + History.COLUMN_CLOSE + " REAL NOT NULL, "
+                + History.COLUMN_VOLUME + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + History.COLUMN_SYMBOL + ", " + History.COLUMN_RESOLUTION + ", "
+                + History.COLUMN_TIMESTAMP + ")) WITHOUT ROWID;");
+    }
 
+    // Replacing a quote row on conflict doesn't fire this, only removing the symbol does.
+    private static void createHistoryTrigger(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER " + HISTORY_TRIGGER + " AFTER DELETE ON " + Quote.TABLE_NAME
+                + " BEGIN DELETE FROM " + History.TABLE_NAME
+                + " WHERE " + History.COLUMN_SYMBOL + " = OLD." + Quote.COLUMN_SYMBOL + ";"
+                + " DELETE FROM " + HistoryStore.SEGMENT_TABLE_NAME
+                + " WHERE " + History.COLUMN_SYMBOL + " = OLD." + Quote.COLUMN_SYMBOL + "; END;");
+    }
+
+    private static void createWatchlistTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Watchlist.TABLE_NAME + " ("
+                + Watchlist.COLUMN_SYMBOL + " TEXT NOT NULL PRIMARY KEY, "
+                + Watchlist.COLUMN_SORT_ORDER + " INTEGER NOT NULL, "
+                + Watchlist.COLUMN_ADDED_AT + " INTEGER NOT NULL, "
+                + Watchlist.COLUMN_FAILURES + " INTEGER NOT NULL DEFAULT 0, "
+                + Watchlist.COLUMN_RETRY_AT + " INTEGER NOT NULL DEFAULT 0, "
+                + Watchlist.COLUMN_ERROR + " TEXT, "
+                + Watchlist.COLUMN_HISTORY_AT + " INTEGER NOT NULL DEFAULT 0, "
+                + Watchlist.COLUMN_VIEWS + " INTEGER NOT NULL DEFAULT 0) WITHOUT ROWID;");
+        db.execSQL("CREATE INDEX " + Watchlist.TABLE_NAME + "_" + Watchlist.COLUMN_SORT_ORDER
+                + " ON " + Watchlist.TABLE_NAME + " (" + Watchlist.COLUMN_SORT_ORDER + ");");
+
+        // Its quote goes with the symbol, and the history with the quote.
+        db.execSQL("CREATE TRIGGER " + WATCHLIST_TRIGGER + " AFTER DELETE ON " + Watchlist.TABLE_NAME
+                + " BEGIN DELETE FROM " + Quote.TABLE_NAME
+                + " WHERE " + Quote.COLUMN_SYMBOL + " = OLD." + Watchlist.COLUMN_SYMBOL + "; END;");
+    }
+
+    /**
+     * Up to version 7 the watchlist was a string set in the default preferences and the sync
+     * state of its symbols lived in a preferences file of its own. Both move into the watchlist
+     * table, in alphabetical order. A fresh install starts with the default stocks.
+     */
+    private void moveWatchlistToTable(SQLiteDatabase db) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String stocksKey = context.getString(R.string.pref_stocks_key);
+        String initializedKey = context.getString(R.string.pref_stocks_initialized_key);
+        Set<String> stocks;
+        if (prefs.getBoolean(initializedKey, false)) {
+            stocks = prefs.getStringSet(stocksKey, Collections.<String>emptySet());
+        } else {
+            stocks = new HashSet<>(Arrays.asList(
+                    context.getResources().getStringArray(R.array.default_stocks)));
+        }
+
+        SharedPreferences syncState = context.getSharedPreferences(V7_SYNC_STATE_PREFS, Context.MODE_PRIVATE);
+        Map<String, ?> state = syncState.getAll();
+        List<String> symbols = new ArrayList<>(stocks);
+        Collections.sort(symbols);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < symbols.size(); i++) {
+            String symbol = symbols.get(i);
+            ContentValues values = new ContentValues();
+            values.put(Watchlist.COLUMN_SYMBOL, symbol);
+            values.put(Watchlist.COLUMN_SORT_ORDER, i);
+            values.put(Watchlist.COLUMN_ADDED_AT, now);
+            for (int k = 0; k < V7_SYNC_STATE_KEYS.length; k++) {
+                Object value = state.get(symbol + V7_SYNC_STATE_KEYS[k]);
+                if (value != null) {
+                    values.put(V7_SYNC_STATE_COLUMNS[k], value.toString());
+                }
+            }
+            db.insertWithOnConflict(Watchlist.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        }
+
+        legacyPrefsMoved = true;
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL(" DROP TABLE IF EXISTS " + Quote.TABLE_NAME);
+    public void onOpen(SQLiteDatabase db) {
+        // Only once the upgrade committed, a failed one is retried from the preferences.
+        if (legacyPrefsMoved) {
+            legacyPrefsMoved = false;
+            PreferenceManager.getDefaultSharedPreferences(context).edit()
+                    .remove(context.getString(R.string.pref_stocks_key))
+                    .remove(context.getString(R.string.pref_stocks_initialized_key))
+                    .apply();
+            context.getSharedPreferences(V7_SYNC_STATE_PREFS, Context.MODE_PRIVATE).edit().clear().apply();
+        }
+    }
+
+    /**
+     * Removes the rows of symbols that are no longer watched, which a removal that didn't make it
+     * through can leave behind, and hands the free pages back to the file system. Runs outside
+     * of any transaction since VACUUM can't run in one. Returns how many rows went.
+     */
+    int compact() {
+        SQLiteDatabase db = getWritableDatabase();
+        int rowsDeleted;
+        db.beginTransaction();
+        try {
+            rowsDeleted = db.delete(Quote.TABLE_NAME, notWatched(Quote.COLUMN_SYMBOL), null);
+            rowsDeleted += db.delete(History.TABLE_NAME, notWatched(History.COLUMN_SYMBOL), null);
+            rowsDeleted += db.delete(HistoryStore.SEGMENT_TABLE_NAME,
+                    notWatched(History.COLUMN_SYMBOL), null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            Timber.d("Rebuilding the database for incremental vacuum");
+            db.execSQL("VACUUM");
+        } else {
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                // Counting steps the statement to its end, freeing the pages on the way.
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+        return rowsDeleted;
+    }
+
+    private void loadSymbolDirectory(SQLiteDatabase db) {
+        try {
+            int loaded = SymbolDirectory.load(db, new InputStreamReader(
+                    context.getResources().openRawResource(R.raw.symbols), Charsets.UTF_8));
+            Timber.d("Loaded %d symbols into the directory", loaded);
+        } catch (IOException e) {
+            // Symbols then go unchecked until the directory is updated.
+            Timber.e(e, "Error loading the symbol directory");
+        }
+    }
+
+    private static String notWatched(String column) {
+        return column + " NOT IN (SELECT " + Watchlist.COLUMN_SYMBOL + " FROM " + Watchlist.TABLE_NAME + ")";
+    }
+
+    /**
+     * Up to version 4 history was CSV text in the quotes table, three columns of full bars in
+     * version 4 and one of weekly closes before. Their bars move into the history table, the
+     * columns go when the quotes table is rebuilt.
+     */
+    private static void moveHistoryToTable(SQLiteDatabase db) {
+        createHistoryTable(db);
+
+        Cursor cursor = db.query(Quote.TABLE_NAME, null, null, null, null, null, null);
+        try {
+            int symbolIndex = cursor.getColumnIndexOrThrow(Quote.COLUMN_SYMBOL);
+            while (cursor.moveToNext()) {
+                String symbol = cursor.getString(symbolIndex);
+                for (int i = 0; i < V4_HISTORY_COLUMNS.length; i++) {
+                    String history = cursor.getString(cursor.getColumnIndexOrThrow(V4_HISTORY_COLUMNS[i]));
+                    insertCsvHistory(db, symbol, V4_HISTORY_RESOLUTIONS[i], history);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Recreates the quotes table as it is defined now, keeping its rows. Up to version 4 it
+     * also held the history, up to version 6 its symbols were unique on conflict replace.
+     */
+    private static void rebuildQuoteTable(SQLiteDatabase db) {
+        String columns = TextUtils.join(", ", new String[]{
+                Quote._ID,
+                Quote.COLUMN_SYMBOL,
+                Quote.COLUMN_PRICE,
+                Quote.COLUMN_ABSOLUTE_CHANGE,
+                Quote.COLUMN_PERCENTAGE_CHANGE,
+                Quote.COLUMN_FINGERPRINT});
+        String rebuilt = Quote.TABLE_NAME + "_new";
+        createQuoteTable(db, rebuilt);
+        db.execSQL("INSERT INTO " + rebuilt + " (" + columns + ") SELECT " + columns
+                + " FROM " + Quote.TABLE_NAME);
+        db.execSQL("DROP TABLE " + Quote.TABLE_NAME);
+        db.execSQL("ALTER TABLE " + rebuilt + " RENAME TO " + Quote.TABLE_NAME);
+        createHistoryTrigger(db);
+    }
 
-        onCreate(db);
+    private static void insertCsvHistory(SQLiteDatabase db, String symbol, int resolution, String history) {
+        if (TextUtils.isEmpty(history)) {
+            return;
+        }
+        try {
+            CSVReader reader = new CSVReader(new StringReader(history));
+            for (String[] line : reader.readAll()) {
+                ContentValues bar = new ContentValues();
+                bar.put(History.COLUMN_SYMBOL, symbol);
+                bar.put(History.COLUMN_RESOLUTION, resolution);
+                bar.put(History.COLUMN_TIMESTAMP, Long.parseLong(line[0].trim()));
+                if (line.length >= 6) {
+                    bar.put(History.COLUMN_OPEN, Double.parseDouble(line[1].trim()));
+                    bar.put(History.COLUMN_HIGH, Double.parseDouble(line[2].trim()));
+                    bar.put(History.COLUMN_LOW, Double.parseDouble(line[3].trim()));
+                    bar.put(History.COLUMN_CLOSE, Double.parseDouble(line[4].trim()));
+                    bar.put(History.COLUMN_VOLUME, Long.parseLong(line[5].trim()));
+                } else if (line.length == 2) {
+                    // A close only, the chart draws it until the full bars are downloaded.
+                    double close = Double.parseDouble(line[1].trim());
+                    bar.put(History.COLUMN_OPEN, close);
+                    bar.put(History.COLUMN_HIGH, close);
+                    bar.put(History.COLUMN_LOW, close);
+                    bar.put(History.COLUMN_CLOSE, close);
+                    bar.put(History.COLUMN_VOLUME, 0);
+                } else {
+                    continue;
+                }
+                db.insertWithOnConflict(History.TABLE_NAME, null, bar, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+        } catch (IOException | NumberFormatException e) {
+            // The sync downloads the series again.
+            Timber.w(e, "Dropping unreadable history of '%s'", symbol);
+        }
     }
 }
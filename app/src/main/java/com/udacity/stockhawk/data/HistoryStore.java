@@ -0,0 +1,402 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.udacity.stockhawk.data.Contract.History;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import timber.log.Timber;
+
+/**
+ * Reads and writes history bars. New bars go into the history table, one row each, so appending
+ * stays cheap. Bars from before the current month are sealed into one {@link SeriesCodec}
+ * segment per symbol, resolution and year, which takes a fraction of the space and is read
+ * without any parsing. Reads merge both, rows winning over sealed bars of the same timestamp.
+ */
+final class HistoryStore {
+
+    static final String SEGMENT_TABLE_NAME = "history_segments";
+    static final String COLUMN_YEAR = "year_start";
+    static final String COLUMN_LAST = "last_timestamp";
+    static final String COLUMN_DATA = "data";
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final String[] BAR_COLUMNS = {
+            History.COLUMN_TIMESTAMP,
+            History.COLUMN_OPEN,
+            History.COLUMN_HIGH,
+            History.COLUMN_LOW,
+            History.COLUMN_CLOSE,
+            History.COLUMN_VOLUME
+    };
+    private static final String KEY_SELECTION = History.COLUMN_SYMBOL + " = ? AND "
+            + History.COLUMN_RESOLUTION + " = ?";
+    private static final String UPDATE_BAR = "UPDATE " + History.TABLE_NAME + " SET "
+            + History.COLUMN_OPEN + " = ?, "
+            + History.COLUMN_HIGH + " = ?, "
+            + History.COLUMN_LOW + " = ?, "
+            + History.COLUMN_CLOSE + " = ?, "
+            + History.COLUMN_VOLUME + " = ? WHERE "
+            + KEY_SELECTION + " AND " + History.COLUMN_TIMESTAMP + " = ?";
+    // Same parameters as UPDATE_BAR.
+    private static final String INSERT_BAR = "INSERT INTO " + History.TABLE_NAME + " ("
+            + History.COLUMN_OPEN + ", "
+            + History.COLUMN_HIGH + ", "
+            + History.COLUMN_LOW + ", "
+            + History.COLUMN_CLOSE + ", "
+            + History.COLUMN_VOLUME + ", "
+            + History.COLUMN_SYMBOL + ", "
+            + History.COLUMN_RESOLUTION + ", "
+            + History.COLUMN_TIMESTAMP + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private HistoryStore() {
+    }
+
+    static void createSegmentTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SEGMENT_TABLE_NAME + " ("
+                + History.COLUMN_SYMBOL + " TEXT NOT NULL, "
+                + History.COLUMN_RESOLUTION + " INTEGER NOT NULL, "
+                + COLUMN_YEAR + " INTEGER NOT NULL, "
+                + COLUMN_LAST + " INTEGER NOT NULL, "
+                + COLUMN_DATA + " BLOB NOT NULL, "
+                + "PRIMARY KEY (" + History.COLUMN_SYMBOL + ", " + History.COLUMN_RESOLUTION + ", "
+                + COLUMN_YEAR + ")) WITHOUT ROWID;");
+    }
+
+    /**
+     * The bars of a symbol and resolution between from and to, both included, in the given
+     * history columns.
+     */
+    static Cursor query(SQLiteDatabase db, String symbol, int resolution, long from, long to,
+                        String[] projection) {
+        List<SeriesCodec.Series> segments = readSegments(db, symbol, resolution, from, to);
+        SeriesCodec.Series rows = readRows(db, symbol, resolution, from, to);
+        int capacity = rows.size;
+        for (SeriesCodec.Series segment : segments) {
+            capacity += segment.size;
+        }
+
+        // Segments come by year and rows by timestamp, so both are merged in one pass.
+        SeriesCodec.Series bars = new SeriesCodec.Series(capacity);
+        int count = 0;
+        int row = 0;
+        for (SeriesCodec.Series segment : segments) {
+            for (int i = 0; i < segment.size; i++) {
+                long timestamp = segment.timestamps[i];
+                if (timestamp < from || timestamp > to) {
+                    continue;
+                }
+                while (row < rows.size && rows.timestamps[row] < timestamp) {
+                    copy(rows, row++, bars, count++);
+                }
+                if (row < rows.size && rows.timestamps[row] == timestamp) {
+                    copy(rows, row++, bars, count++);
+                } else {
+                    copy(segment, i, bars, count++);
+                }
+            }
+        }
+        while (row < rows.size) {
+            copy(rows, row++, bars, count++);
+        }
+        return new SeriesCursor(projection, symbol, resolution, bars, count);
+    }
+
+    /**
+     * Writes bars as rows, replacing the ones stored for the same timestamps. They stay rows
+     * until {@link #seal} runs. Must run inside a transaction.
+     */
+    static int insert(SQLiteDatabase db, String symbol, int resolution, ContentValues[] bars) {
+        int returnCount = 0;
+        SQLiteStatement update = db.compileStatement(UPDATE_BAR);
+        SQLiteStatement insert = db.compileStatement(INSERT_BAR);
+        try {
+            for (ContentValues bar : bars) {
+                bindBar(update, symbol, resolution, bar);
+                if (update.executeUpdateDelete() > 0) {
+                    returnCount++;
+                    continue;
+                }
+                bindBar(insert, symbol, resolution, bar);
+                if (insert.executeInsert() != -1) {
+                    returnCount++;
+                }
+            }
+        } finally {
+            update.close();
+            insert.close();
+        }
+        return returnCount;
+    }
+
+    // Open, high, low, close and volume, then the key.
+    private static void bindBar(SQLiteStatement statement, String symbol, int resolution,
+                                ContentValues bar) {
+        statement.bindDouble(1, bar.getAsDouble(History.COLUMN_OPEN));
+        statement.bindDouble(2, bar.getAsDouble(History.COLUMN_HIGH));
+        statement.bindDouble(3, bar.getAsDouble(History.COLUMN_LOW));
+        statement.bindDouble(4, bar.getAsDouble(History.COLUMN_CLOSE));
+        statement.bindLong(5, bar.getAsLong(History.COLUMN_VOLUME));
+        statement.bindString(6, symbol);
+        statement.bindLong(7, resolution);
+        statement.bindLong(8, bar.getAsLong(History.COLUMN_TIMESTAMP));
+    }
+
+    /**
+     * Removes the bars between from and to, both included. Must run inside a transaction.
+     */
+    static int delete(SQLiteDatabase db, String symbol, int resolution, long from, long to) {
+        int rowsDeleted = db.delete(History.TABLE_NAME,
+                rangeSelection(History.COLUMN_TIMESTAMP, History.COLUMN_TIMESTAMP),
+                rangeArgs(symbol, resolution, from, to));
+
+        // Read them all first, the segments are rewritten as we go.
+        Map<Long, byte[]> segments = new TreeMap<>();
+        Cursor cursor = db.query(SEGMENT_TABLE_NAME, new String[]{COLUMN_YEAR, COLUMN_DATA},
+                rangeSelection(COLUMN_LAST, COLUMN_YEAR), rangeArgs(symbol, resolution, from, to),
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                segments.put(cursor.getLong(0), cursor.getBlob(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (Map.Entry<Long, byte[]> entry : segments.entrySet()) {
+            TreeMap<Long, Bar> kept = new TreeMap<>();
+            SeriesCodec.Series segment = decode(symbol, entry.getValue());
+            int size = segment != null ? segment.size : 0;
+            for (int i = 0; i < size; i++) {
+                if (segment.timestamps[i] < from || segment.timestamps[i] > to) {
+                    kept.put(segment.timestamps[i], Bar.of(segment, i));
+                }
+            }
+            rowsDeleted += size - kept.size();
+            writeSegment(db, symbol, resolution, entry.getKey(), kept);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Seals every symbol and resolution, for data written before segments existed.
+     */
+    static void sealAll(SQLiteDatabase db) {
+        Cursor keys = db.query(true, History.TABLE_NAME,
+                new String[]{History.COLUMN_SYMBOL, History.COLUMN_RESOLUTION},
+                null, null, null, null, null, null);
+        long before = startOf(System.currentTimeMillis(), Calendar.MONTH);
+        try {
+            while (keys.moveToNext()) {
+                seal(db, keys.getString(0), keys.getInt(1), before);
+            }
+        } finally {
+            keys.close();
+        }
+    }
+
+    /**
+     * Moves the rows older than the current month into the segments of their years. Must run
+     * inside a transaction.
+     */
+    static void seal(SQLiteDatabase db, String symbol, int resolution) {
+        seal(db, symbol, resolution, startOf(System.currentTimeMillis(), Calendar.MONTH));
+    }
+
+    private static void seal(SQLiteDatabase db, String symbol, int resolution, long before) {
+        String[] args = rangeArgs(symbol, resolution, Long.MIN_VALUE, before - 1);
+        String selection = rangeSelection(History.COLUMN_TIMESTAMP, History.COLUMN_TIMESTAMP);
+        Map<Long, TreeMap<Long, Bar>> years = new TreeMap<>();
+        Cursor rows = db.query(History.TABLE_NAME, BAR_COLUMNS, selection, args, null, null, null);
+        try {
+            while (rows.moveToNext()) {
+                Bar bar = Bar.of(rows);
+                long year = startOf(bar.timestamp, Calendar.YEAR);
+                TreeMap<Long, Bar> sealed = years.get(year);
+                if (sealed == null) {
+                    sealed = readSegment(db, symbol, resolution, year);
+                    years.put(year, sealed);
+                }
+                sealed.put(bar.timestamp, bar);
+            }
+        } finally {
+            rows.close();
+        }
+        if (years.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<Long, TreeMap<Long, Bar>> year : years.entrySet()) {
+            writeSegment(db, symbol, resolution, year.getKey(), year.getValue());
+        }
+        db.delete(History.TABLE_NAME, selection, args);
+    }
+
+    private static SeriesCodec.Series readRows(SQLiteDatabase db, String symbol, int resolution,
+                                               long from, long to) {
+        Cursor cursor = db.query(History.TABLE_NAME, BAR_COLUMNS,
+                rangeSelection(History.COLUMN_TIMESTAMP, History.COLUMN_TIMESTAMP),
+                rangeArgs(symbol, resolution, from, to), null, null, History.COLUMN_TIMESTAMP);
+        try {
+            SeriesCodec.Series rows = new SeriesCodec.Series(cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                rows.timestamps[i] = cursor.getLong(0);
+                rows.open[i] = cursor.getDouble(1);
+                rows.high[i] = cursor.getDouble(2);
+                rows.low[i] = cursor.getDouble(3);
+                rows.close[i] = cursor.getDouble(4);
+                rows.volume[i] = cursor.getLong(5);
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void copy(SeriesCodec.Series from, int i, SeriesCodec.Series to, int j) {
+        to.timestamps[j] = from.timestamps[i];
+        to.open[j] = from.open[i];
+        to.high[j] = from.high[i];
+        to.low[j] = from.low[i];
+        to.close[j] = from.close[i];
+        to.volume[j] = from.volume[i];
+    }
+
+    private static List<SeriesCodec.Series> readSegments(SQLiteDatabase db, String symbol,
+                                                         int resolution, long from, long to) {
+        List<SeriesCodec.Series> segments = new ArrayList<>();
+        Cursor cursor = db.query(SEGMENT_TABLE_NAME, new String[]{COLUMN_DATA},
+                rangeSelection(COLUMN_LAST, COLUMN_YEAR), rangeArgs(symbol, resolution, from, to),
+                null, null, COLUMN_YEAR);
+        try {
+            while (cursor.moveToNext()) {
+                SeriesCodec.Series segment = decode(symbol, cursor.getBlob(0));
+                if (segment != null) {
+                    segments.add(segment);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return segments;
+    }
+
+    private static TreeMap<Long, Bar> readSegment(SQLiteDatabase db, String symbol, int resolution,
+                                                  long start) {
+        TreeMap<Long, Bar> bars = new TreeMap<>();
+        Cursor cursor = db.query(SEGMENT_TABLE_NAME, new String[]{COLUMN_DATA},
+                KEY_SELECTION + " AND " + COLUMN_YEAR + " = ?",
+                new String[]{symbol, String.valueOf(resolution), String.valueOf(start)},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                SeriesCodec.Series segment = decode(symbol, cursor.getBlob(0));
+                for (int i = 0; segment != null && i < segment.size; i++) {
+                    bars.put(segment.timestamps[i], Bar.of(segment, i));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return bars;
+    }
+
+    private static void writeSegment(SQLiteDatabase db, String symbol, int resolution, long start,
+                                     TreeMap<Long, Bar> bars) {
+        if (bars.isEmpty()) {
+            db.delete(SEGMENT_TABLE_NAME, KEY_SELECTION + " AND " + COLUMN_YEAR + " = ?",
+                    new String[]{symbol, String.valueOf(resolution), String.valueOf(start)});
+            return;
+        }
+        SeriesCodec.Series series = new SeriesCodec.Series(bars.size());
+        int i = 0;
+        for (Bar bar : bars.values()) {
+            series.timestamps[i] = bar.timestamp;
+            series.open[i] = bar.open;
+            series.high[i] = bar.high;
+            series.low[i] = bar.low;
+            series.close[i] = bar.close;
+            series.volume[i] = bar.volume;
+            i++;
+        }
+        ContentValues values = new ContentValues();
+        values.put(History.COLUMN_SYMBOL, symbol);
+        values.put(History.COLUMN_RESOLUTION, resolution);
+        values.put(COLUMN_YEAR, start);
+        values.put(COLUMN_LAST, bars.lastKey());
+        values.put(COLUMN_DATA, SeriesCodec.encode(series));
+        db.insertWithOnConflict(SEGMENT_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static SeriesCodec.Series decode(String symbol, byte[] data) {
+        try {
+            return SeriesCodec.decode(data);
+        } catch (IllegalArgumentException e) {
+            // Treated as missing, the sync downloads the series again once it sees the hole.
+            Timber.w(e, "Unreadable history segment of '%s'", symbol);
+            return null;
+        }
+    }
+
+    // Rows and segments of the key whose [low, high] overlaps [from, to].
+    private static String rangeSelection(String highColumn, String lowColumn) {
+        return KEY_SELECTION + " AND " + highColumn + " >= ? AND " + lowColumn + " <= ?";
+    }
+
+    private static String[] rangeArgs(String symbol, int resolution, long from, long to) {
+        return new String[]{symbol, String.valueOf(resolution), String.valueOf(from), String.valueOf(to)};
+    }
+
+    private static long startOf(long timestamp, int field) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTimeInMillis(timestamp);
+        if (field == Calendar.YEAR) {
+            calendar.set(Calendar.MONTH, Calendar.JANUARY);
+        }
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static final class Bar {
+
+        final long timestamp;
+        final double open;
+        final double high;
+        final double low;
+        final double close;
+        final long volume;
+
+        private Bar(long timestamp, double open, double high, double low, double close, long volume) {
+            this.timestamp = timestamp;
+            this.open = open;
+            this.high = high;
+            this.low = low;
+            this.close = close;
+            this.volume = volume;
+        }
+
+        // A row in BAR_COLUMNS order.
+        static Bar of(Cursor row) {
+            return new Bar(row.getLong(0), row.getDouble(1), row.getDouble(2), row.getDouble(3),
+                    row.getDouble(4), row.getLong(5));
+        }
+
+        static Bar of(SeriesCodec.Series series, int i) {
+            return new Bar(series.timestamps[i], series.open[i], series.high[i], series.low[i],
+                    series.close[i], series.volume[i]);
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package com.udacity.stockhawk.data;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.preference.PreferenceManager;
 
 import com.udacity.stockhawk.R;
 
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 public final class PrefUtils {
@@ -15,50 +16,39 @@ public final class PrefUtils {
     private PrefUtils() {
     }
 
+    /**
+     * The watched symbols, in the order they are listed.
+     */
     public static Set<String> getStocks(Context context) {
-        String stocksKey = context.getString(R.string.pref_stocks_key);
-        String initializedKey = context.getString(R.string.pref_stocks_initialized_key);
-        String[] defaultStocksList = context.getResources().getStringArray(R.array.default_stocks);
-
-        HashSet<String> defaultStocks = new HashSet<>(Arrays.asList(defaultStocksList));
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-
-
-        boolean initialized = prefs.getBoolean(initializedKey, false);
-
-        if (!initialized) {
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.putBoolean(initializedKey, true);
-            editor.putStringSet(stocksKey, defaultStocks);
-            editor.apply();
-            return defaultStocks;
+        Set<String> stocks = new LinkedHashSet<>();
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Watchlist.URI,
+                new String[]{Contract.Watchlist.COLUMN_SYMBOL},
+                null, null, null);
+        if (cursor == null) {
+            return stocks;
         }
-        return prefs.getStringSet(stocksKey, new HashSet<String>());
-
-    }
-
-    private static void editStockPref(Context context, String symbol, Boolean add) {
-        String key = context.getString(R.string.pref_stocks_key);
-        Set<String> stocks = getStocks(context);
-
-        if (add) {
-            stocks.add(symbol);
-        } else {
-            stocks.remove(symbol);
+        try {
+            while (cursor.moveToNext()) {
+                stocks.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
         }
-
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putStringSet(key, stocks);
-        editor.apply();
+        return stocks;
     }
 
     public static void addStock(Context context, String symbol) {
-        editStockPref(context, symbol, true);
+        ContentValues values = new ContentValues();
+        values.put(Contract.Watchlist.COLUMN_SYMBOL, symbol);
+        context.getContentResolver().insert(Contract.Watchlist.URI, values);
     }
 
+    /**
+     * Stops watching a symbol. Its quote, history and sync state go with it.
+     */
     public static void removeStock(Context context, String symbol) {
-        editStockPref(context, symbol, false);
+        context.getContentResolver().delete(Contract.Watchlist.makeUriForSymbol(symbol), null, null);
     }
 
     public static String getDisplayMode(Context context) {
@@ -88,4 +78,18 @@ public final class PrefUtils {
         editor.apply();
     }
 
+    public static boolean isStreamingEnabled(Context context) {
+        String key = context.getString(R.string.pref_streaming_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(key, false);
+    }
+
+    public static void setStreamingEnabled(Context context, boolean enabled) {
+        String key = context.getString(R.string.pref_streaming_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putBoolean(key, enabled);
+        editor.apply();
+    }
+
 }
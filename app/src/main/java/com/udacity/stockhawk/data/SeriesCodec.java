@@ -0,0 +1,195 @@
+package com.udacity.stockhawk.data;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Binary format of a stored run of bars. After a header of magic, version, bar count, time unit
+ * and price scale, every bar is a row of varints: the timestamp as a delta from the previous
+ * bar in time units, the close as a delta from the previous close and open, high and low as
+ * deltas from their own close, all in scaled integer prices, then the volume. A daily bar takes
+ * about 16 bytes instead of the 60 or so of a table row.
+ */
+final class SeriesCodec {
+
+    static final int VERSION = 1;
+
+    private static final int MAGIC = 0x53;
+    // Prices are kept to this many decimals.
+    private static final int PRICE_SCALE = 4;
+    // More decimals leave too little room in a long for the scaled price.
+    private static final int MAX_PRICE_SCALE = 9;
+    private static final long[] TIME_UNITS = {60000, 1000, 1};
+    private static final int BAR_FIELDS = 6;
+
+    private SeriesCodec() {
+    }
+
+    /**
+     * Bars in primitive arrays, ordered by timestamp.
+     */
+    static final class Series {
+
+        final int size;
+        final long[] timestamps;
+        final double[] open;
+        final double[] high;
+        final double[] low;
+        final double[] close;
+        final long[] volume;
+
+        Series(int size) {
+            this.size = size;
+            timestamps = new long[size];
+            open = new double[size];
+            high = new double[size];
+            low = new double[size];
+            close = new double[size];
+            volume = new long[size];
+        }
+    }
+
+    static byte[] encode(Series series) {
+        long unit = timeUnitOf(series);
+        double factor = Math.pow(10, PRICE_SCALE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + series.size * 16);
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeVarint(out, series.size);
+        writeVarint(out, unit);
+        writeVarint(out, PRICE_SCALE);
+
+        long previousTime = 0;
+        long previousClose = 0;
+        for (int i = 0; i < series.size; i++) {
+            long time = series.timestamps[i] / unit;
+            long close = Math.round(series.close[i] * factor);
+            writeSigned(out, time - previousTime);
+            writeSigned(out, close - previousClose);
+            writeSigned(out, Math.round(series.open[i] * factor) - close);
+            writeSigned(out, Math.round(series.high[i] * factor) - close);
+            writeSigned(out, Math.round(series.low[i] * factor) - close);
+            writeSigned(out, series.volume[i]);
+            previousTime = time;
+            previousClose = close;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads an encoded series. Throws {@link IllegalArgumentException} if the data isn't a
+     * series, is corrupt or was written by a newer version of the format.
+     */
+    static Series decode(byte[] data) {
+        Reader in = new Reader(data);
+        if (in.readByte() != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded series");
+        }
+        int version = in.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported series version " + version);
+        }
+        // Every bar takes at least one byte per field.
+        long count = in.readVarint();
+        if (count < 0 || count > in.remaining() / BAR_FIELDS) {
+            throw new IllegalArgumentException("Bad bar count " + count);
+        }
+        long unit = in.readVarint();
+        if (!isTimeUnit(unit)) {
+            throw new IllegalArgumentException("Bad time unit " + unit);
+        }
+        long scale = in.readVarint();
+        if (scale < 0 || scale > MAX_PRICE_SCALE) {
+            throw new IllegalArgumentException("Bad price scale " + scale);
+        }
+        Series series = new Series((int) count);
+        double factor = Math.pow(10, scale);
+
+        long time = 0;
+        long close = 0;
+        for (int i = 0; i < series.size; i++) {
+            time += in.readSigned();
+            close += in.readSigned();
+            series.timestamps[i] = time * unit;
+            series.close[i] = close / factor;
+            series.open[i] = (close + in.readSigned()) / factor;
+            series.high[i] = (close + in.readSigned()) / factor;
+            series.low[i] = (close + in.readSigned()) / factor;
+            series.volume[i] = in.readSigned();
+        }
+        return series;
+    }
+
+    // The coarsest unit every timestamp is a multiple of, daily bars come out in minutes.
+    private static long timeUnitOf(Series series) {
+        for (long unit : TIME_UNITS) {
+            boolean fits = true;
+            for (int i = 0; i < series.size && fits; i++) {
+                fits = series.timestamps[i] % unit == 0;
+            }
+            if (fits) {
+                return unit;
+            }
+        }
+        return 1;
+    }
+
+    private static boolean isTimeUnit(long unit) {
+        for (long it : TIME_UNITS) {
+            if (it == unit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeSigned(ByteArrayOutputStream out, long value) {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static final class Reader {
+
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int remaining() {
+            return data.length - position;
+        }
+
+        int readByte() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Truncated series");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        long readSigned() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.udacity.stockhawk.data;
+
+import android.database.AbstractCursor;
+
+import com.udacity.stockhawk.data.Contract.History;
+
+/**
+ * History bars of one symbol and resolution, read straight out of the primitive arrays of a
+ * {@link SeriesCodec.Series} without boxing a value per cell.
+ */
+final class SeriesCursor extends AbstractCursor {
+
+    private static final String[] ALL_COLUMNS = {
+            History.COLUMN_SYMBOL,
+            History.COLUMN_RESOLUTION,
+            History.COLUMN_TIMESTAMP,
+            History.COLUMN_OPEN,
+            History.COLUMN_HIGH,
+            History.COLUMN_LOW,
+            History.COLUMN_CLOSE,
+            History.COLUMN_VOLUME
+    };
+    // Indexes into ALL_COLUMNS.
+    private static final int SYMBOL = 0;
+    private static final int RESOLUTION = 1;
+    private static final int TIMESTAMP = 2;
+    private static final int OPEN = 3;
+    private static final int HIGH = 4;
+    private static final int LOW = 5;
+    private static final int CLOSE = 6;
+
+    private final String[] columns;
+    private final int[] indexes;
+    private final String symbol;
+    private final int resolution;
+    private final SeriesCodec.Series bars;
+    private final int count;
+
+    /**
+     * The first count bars of the series, in the given history columns or all of them if
+     * projection is null.
+     */
+    SeriesCursor(String[] projection, String symbol, int resolution, SeriesCodec.Series bars,
+                 int count) {
+        this.columns = projection != null ? projection : ALL_COLUMNS;
+        this.indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = indexOf(columns[i]);
+        }
+        this.symbol = symbol;
+        this.resolution = resolution;
+        this.bars = bars;
+        this.count = count;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columns;
+    }
+
+    @Override
+    public int getType(int column) {
+        switch (indexes[column]) {
+            case SYMBOL:
+                return FIELD_TYPE_STRING;
+            case OPEN:
+            case HIGH:
+            case LOW:
+            case CLOSE:
+                return FIELD_TYPE_FLOAT;
+            default:
+                return FIELD_TYPE_INTEGER;
+        }
+    }
+
+    @Override
+    public String getString(int column) {
+        switch (indexes[column]) {
+            case SYMBOL:
+                return symbol;
+            case OPEN:
+            case HIGH:
+            case LOW:
+            case CLOSE:
+                return String.valueOf(getDouble(column));
+            default:
+                return String.valueOf(getLong(column));
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        int position = getBar();
+        switch (indexes[column]) {
+            case SYMBOL:
+                return Long.parseLong(symbol);
+            case RESOLUTION:
+                return resolution;
+            case TIMESTAMP:
+                return bars.timestamps[position];
+            case OPEN:
+            case HIGH:
+            case LOW:
+            case CLOSE:
+                return (long) getDouble(column);
+            default:
+                return bars.volume[position];
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        int position = getBar();
+        switch (indexes[column]) {
+            case SYMBOL:
+                return Double.parseDouble(symbol);
+            case OPEN:
+                return bars.open[position];
+            case HIGH:
+                return bars.high[position];
+            case LOW:
+                return bars.low[position];
+            case CLOSE:
+                return bars.close[position];
+            default:
+                return getLong(column);
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return indexes[column] == SYMBOL && symbol == null;
+    }
+
+    private int getBar() {
+        checkPosition();
+        return getPosition();
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < ALL_COLUMNS.length; i++) {
+            if (ALL_COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown history column: " + column);
+    }
+}
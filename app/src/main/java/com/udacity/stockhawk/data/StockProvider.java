@@ -1,29 +1,101 @@
 package com.udacity.stockhawk.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Pair;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 
 public class StockProvider extends ContentProvider {
 
     private static final int QUOTE = 100;
     private static final int QUOTE_FOR_SYMBOL = 101;
+    private static final int QUOTE_HISTORY = 102;
+    private static final int SUMMARY = 103;
+    private static final int WATCHLIST = 300;
+    private static final int WATCHLIST_FOR_SYMBOL = 301;
+    private static final int TICK = 200;
+    private static final int SYMBOL = 400;
+    private static final int SYMBOL_FOR_SYMBOL = 401;
+    // Results of a search without a limit.
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
 
     private static final UriMatcher uriMatcher = buildUriMatcher();
 
+    private static final String[] FINGERPRINT_COLUMNS = {
+            Contract.Quote.COLUMN_PRICE,
+            Contract.Quote.COLUMN_ABSOLUTE_CHANGE,
+            Contract.Quote.COLUMN_PERCENTAGE_CHANGE
+    };
+
+    private static final String UPDATE_QUOTE = "UPDATE " + Contract.Quote.TABLE_NAME + " SET "
+            + Contract.Quote.COLUMN_PRICE + " = ?, "
+            + Contract.Quote.COLUMN_ABSOLUTE_CHANGE + " = ?, "
+            + Contract.Quote.COLUMN_PERCENTAGE_CHANGE + " = ?, "
+            + Contract.Quote.COLUMN_FINGERPRINT + " = ? WHERE "
+            + Contract.Quote.COLUMN_SYMBOL + " = ?";
+    // Same parameters as UPDATE_QUOTE.
+    private static final String INSERT_QUOTE = "INSERT INTO " + Contract.Quote.TABLE_NAME + " ("
+            + Contract.Quote.COLUMN_PRICE + ", "
+            + Contract.Quote.COLUMN_ABSOLUTE_CHANGE + ", "
+            + Contract.Quote.COLUMN_PERCENTAGE_CHANGE + ", "
+            + Contract.Quote.COLUMN_FINGERPRINT + ", "
+            + Contract.Quote.COLUMN_SYMBOL + ") VALUES (?, ?, ?, ?, ?)";
+
+    // The quotes of the watched symbols, USING lets both tables share the symbol column.
+    private static final String SUMMARY_TABLES = Contract.Quote.TABLE_NAME + " JOIN "
+            + Contract.Watchlist.TABLE_NAME + " USING (" + Contract.Quote.COLUMN_SYMBOL + ")";
+    private static final String SELECT_NEXT_SORT_ORDER = "SELECT IFNULL(MAX("
+            + Contract.Watchlist.COLUMN_SORT_ORDER + "), -1) + 1 FROM " + Contract.Watchlist.TABLE_NAME;
+    private static final String SELECT_FINGERPRINT = "SELECT " + Contract.Quote.COLUMN_FINGERPRINT
+            + " FROM " + Contract.Quote.TABLE_NAME + " WHERE " + Contract.Quote.COLUMN_SYMBOL + " = ?";
+    // Counted in SQL so views recorded at the same time don't overwrite each other.
+    private static final String INCREMENT_VIEWS = "UPDATE " + Contract.Watchlist.TABLE_NAME
+            + " SET " + Contract.Watchlist.COLUMN_VIEWS + " = " + Contract.Watchlist.COLUMN_VIEWS
+            + " + 1 WHERE " + Contract.Watchlist.COLUMN_SYMBOL + " = ?";
+
     private DbHelper dbHelper;
+    private SymbolDirectory symbolDirectory;
+    // The batch applyBatch is running on this thread, if any.
+    private final ThreadLocal<Batch> batch = new ThreadLocal<>();
 
     private static UriMatcher buildUriMatcher() {
         UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
         matcher.addURI(Contract.AUTHORITY, Contract.PATH_QUOTE, QUOTE);
         matcher.addURI(Contract.AUTHORITY, Contract.PATH_QUOTE_WITH_SYMBOL, QUOTE_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_QUOTE_HISTORY, QUOTE_HISTORY);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_SUMMARY, SUMMARY);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST, WATCHLIST);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST_WITH_SYMBOL, WATCHLIST_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_SYMBOL, SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_SYMBOL_WITH_SYMBOL, SYMBOL_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_TICK, TICK);
         return matcher;
     }
 
@@ -31,6 +103,7 @@ public class StockProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         dbHelper = new DbHelper(getContext());
+        symbolDirectory = new SymbolDirectory(dbHelper);
         return true;
     }
 
@@ -65,6 +138,82 @@ public class StockProvider extends ContentProvider {
                 );
 
                 break;
+
+            case SUMMARY:
+                if (projection != null && !Contract.Quote.SUMMARY_COLUMNS.containsAll(Arrays.asList(projection))) {
+                    throw new IllegalArgumentException("Not a summary column in " + Arrays.toString(projection));
+                }
+                SQLiteQueryBuilder summary = new SQLiteQueryBuilder();
+                summary.setTables(SUMMARY_TABLES);
+                returnCursor = summary.query(
+                        db,
+                        projection != null
+                                ? projection
+                                : Contract.Quote.SUMMARY_COLUMNS.toArray(new String[]{}),
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : Contract.Watchlist.COLUMN_SORT_ORDER
+                );
+                break;
+
+            case WATCHLIST:
+                returnCursor = db.query(
+                        Contract.Watchlist.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : Contract.Watchlist.COLUMN_SORT_ORDER
+                );
+                break;
+
+            case WATCHLIST_FOR_SYMBOL:
+                returnCursor = db.query(
+                        Contract.Watchlist.TABLE_NAME,
+                        projection,
+                        Contract.Watchlist.COLUMN_SYMBOL + " = ?",
+                        new String[]{Contract.Watchlist.getSymbolFromUri(uri)},
+                        null,
+                        null,
+                        null
+                );
+                break;
+
+            case QUOTE_HISTORY:
+                // A whole series belongs to no screen, readers ask for the range they show.
+                if (uri.getQueryParameter(Contract.History.PARAM_FROM) == null) {
+                    throw new IllegalArgumentException("History reads need a from bound: " + uri);
+                }
+                returnCursor = HistoryStore.query(
+                        db,
+                        Contract.History.getStockFromUri(uri),
+                        getResolution(uri),
+                        getBound(uri, Contract.History.PARAM_FROM, Long.MIN_VALUE),
+                        getBound(uri, Contract.History.PARAM_TO, Long.MAX_VALUE),
+                        projection
+                );
+                break;
+
+            case SYMBOL:
+                // Like history, the whole directory belongs to no screen.
+                String search = uri.getQueryParameter(Contract.Symbol.PARAM_QUERY);
+                if (search == null) {
+                    throw new IllegalArgumentException("Symbol reads need a query: " + uri);
+                }
+                String limit = uri.getQueryParameter(Contract.Symbol.PARAM_LIMIT);
+                returnCursor = symbolDirectory.search(
+                        search,
+                        projection,
+                        limit != null ? Integer.parseInt(limit) : DEFAULT_SEARCH_LIMIT
+                );
+                break;
+
+            case SYMBOL_FOR_SYMBOL:
+                returnCursor = symbolDirectory.lookup(Contract.Symbol.getSymbolFromUri(uri), projection);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
@@ -91,22 +240,24 @@ public class StockProvider extends ContentProvider {
 
         switch (uriMatcher.match(uri)) {
             case QUOTE:
-                db.insert(
-                        Contract.Quote.TABLE_NAME,
-                        null,
-                        values
-                );
-                returnUri = Contract.Quote.URI;
+                // The row uri if it was written, the directory if it already held these values.
+                Set<String> changed = upsertQuotes(db, new ContentValues[]{values});
+                notifyQuotes(changed);
+                returnUri = changed.isEmpty()
+                        ? Contract.Quote.URI
+                        : Contract.Quote.makeUriForStock(changed.iterator().next());
+                break;
+            case QUOTE_HISTORY:
+                insertHistory(db, uri, new ContentValues[]{values});
+                returnUri = uri;
+                break;
+            case WATCHLIST:
+                returnUri = insertWatched(db, values);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
 
-        Context context = getContext();
-        if (context != null){
-            context.getContentResolver().notifyChange(uri, null);
-        }
-
         return returnUri;
     }
 
@@ -114,6 +265,7 @@ public class StockProvider extends ContentProvider {
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = dbHelper.getWritableDatabase();
         int rowsDeleted;
+        Collection<String> changed = null;
 
         if (null == selection) {
             selection = "1";
@@ -135,16 +287,54 @@ public class StockProvider extends ContentProvider {
                         '"' + symbol + '"' + " =" + Contract.Quote.COLUMN_SYMBOL,
                         selectionArgs
                 );
+                changed = Collections.singleton(symbol);
+                break;
+
+            case WATCHLIST:
+                rowsDeleted = db.delete(
+                        Contract.Watchlist.TABLE_NAME,
+                        selection,
+                        selectionArgs
+                );
+                notifyWatchlist(rowsDeleted);
+                break;
+
+            case WATCHLIST_FOR_SYMBOL:
+                // Deleting the symbol deletes its quote too.
+                String watched = Contract.Watchlist.getSymbolFromUri(uri);
+                rowsDeleted = db.delete(
+                        Contract.Watchlist.TABLE_NAME,
+                        Contract.Watchlist.COLUMN_SYMBOL + " = ?",
+                        new String[]{watched}
+                );
+                notifyWatchlist(rowsDeleted);
+                changed = Collections.singleton(watched);
                 break;
+
+            case QUOTE_HISTORY:
+                db.beginTransaction();
+                try {
+                    rowsDeleted = HistoryStore.delete(
+                            db,
+                            Contract.History.getStockFromUri(uri),
+                            getResolution(uri),
+                            getBound(uri, Contract.History.PARAM_FROM, Long.MIN_VALUE),
+                            getBound(uri, Contract.History.PARAM_TO, Long.MAX_VALUE)
+                    );
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted != 0) {
+                    notifyHistory(uri);
+                }
+                return rowsDeleted;
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
 
         if (rowsDeleted != 0) {
-            Context context = getContext();
-            if (context != null){
-                context.getContentResolver().notifyChange(uri, null);
-            }
+            notifyQuotes(changed);
         }
 
         return rowsDeleted;
@@ -152,7 +342,93 @@ public class StockProvider extends ContentProvider {
 
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        return 0;
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rowsUpdated;
+        String symbol = null;
+
+        switch (uriMatcher.match(uri)) {
+            case QUOTE:
+                rowsUpdated = db.update(
+                        Contract.Quote.TABLE_NAME,
+                        values,
+                        selection,
+                        selectionArgs
+                );
+                break;
+            case WATCHLIST:
+                rowsUpdated = db.update(
+                        Contract.Watchlist.TABLE_NAME,
+                        values,
+                        selection,
+                        selectionArgs
+                );
+                notifyWatchlist(rowsUpdated);
+                return rowsUpdated;
+            case WATCHLIST_FOR_SYMBOL:
+                String watched = Contract.Watchlist.getSymbolFromUri(uri);
+                rowsUpdated = db.update(
+                        Contract.Watchlist.TABLE_NAME,
+                        values,
+                        Contract.Watchlist.COLUMN_SYMBOL + " = ?"
+                                + (selection != null ? " AND (" + selection + ")" : ""),
+                        prepend(watched, selectionArgs)
+                );
+                notifyWatchlist(rowsUpdated);
+                return rowsUpdated;
+            case QUOTE_FOR_SYMBOL:
+                symbol = Contract.Quote.getStockFromUri(uri);
+                rowsUpdated = db.update(
+                        Contract.Quote.TABLE_NAME,
+                        values,
+                        Contract.Quote.COLUMN_SYMBOL + " = ?",
+                        new String[]{symbol}
+                );
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown URI:" + uri);
+        }
+
+        if (rowsUpdated != 0) {
+            notifyQuotes(symbol != null ? Collections.singleton(symbol) : null);
+        }
+
+        return rowsUpdated;
+    }
+
+    /**
+     * Applies the operations in one transaction: either all of them are written or none. The
+     * observers hear about the batch once, after it committed.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Batch current = new Batch();
+        ContentProviderResult[] results;
+        batch.set(current);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            for (Pair<String, Integer> key : current.toSeal) {
+                HistoryStore.seal(db, key.first, key.second);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            batch.remove();
+        }
+
+        if (current.allQuotes) {
+            notifyQuotes(null);
+        } else {
+            notifyQuotes(current.symbols);
+        }
+        for (Uri history : current.history) {
+            notifyHistory(history);
+        }
+        notifyWatchlist(current.watchlist ? 1 : 0);
+        return results;
     }
 
     @Override
@@ -162,29 +438,298 @@ public class StockProvider extends ContentProvider {
 
         switch (uriMatcher.match(uri)) {
             case QUOTE:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        db.insert(
-                                Contract.Quote.TABLE_NAME,
-                                null,
-                                value
-                        );
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                Set<String> changed = upsertQuotes(db, values);
+                notifyQuotes(changed);
+
+                return changed.size();
+            case QUOTE_HISTORY:
+                return insertHistory(db, uri, values);
+            case TICK:
+                return applyTicks(db, values);
+            case SYMBOL:
+                return insertSymbols(db, values);
+            default:
+                return super.bulkInsert(uri, values);
+        }
+    }
+
+    /**
+     * Writes bars of the symbol and resolution of the uri, replacing the ones already stored
+     * for the same timestamps.
+     */
+    private int insertHistory(SQLiteDatabase db, Uri uri, ContentValues[] bars) {
+        String symbol = Contract.History.getStockFromUri(uri);
+        int resolution = getResolution(uri);
+        int returnCount;
+        db.beginTransaction();
+        try {
+            returnCount = HistoryStore.insert(db, symbol, resolution, bars);
+            // A batch inserts bars one by one, it seals once at the end.
+            Batch current = batch.get();
+            if (current != null) {
+                current.toSeal.add(Pair.create(symbol, resolution));
+            } else {
+                HistoryStore.seal(db, symbol, resolution);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (returnCount > 0) {
+            notifyHistory(uri);
+        }
+        return returnCount;
+    }
+
+    private int insertSymbols(SQLiteDatabase db, ContentValues[] values) {
+        int returnCount;
+        db.beginTransaction();
+        try {
+            returnCount = SymbolDirectory.insert(db, values);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            symbolDirectory.invalidate();
+        }
+
+        Context context = getContext();
+        if (returnCount > 0 && context != null) {
+            context.getContentResolver().notifyChange(Contract.Symbol.URI, null);
+        }
+        return returnCount;
+    }
+
+    /**
+     * Adds a symbol at the end of the watchlist unless it is there already, and returns its uri.
+     */
+    private Uri insertWatched(SQLiteDatabase db, ContentValues values) {
+        String symbol = values.getAsString(Contract.Watchlist.COLUMN_SYMBOL);
+        ContentValues watched = new ContentValues(values);
+        if (!watched.containsKey(Contract.Watchlist.COLUMN_ADDED_AT)) {
+            watched.put(Contract.Watchlist.COLUMN_ADDED_AT, System.currentTimeMillis());
+        }
+        db.beginTransaction();
+        try {
+            if (!watched.containsKey(Contract.Watchlist.COLUMN_SORT_ORDER)) {
+                watched.put(Contract.Watchlist.COLUMN_SORT_ORDER,
+                        DatabaseUtils.longForQuery(db, SELECT_NEXT_SORT_ORDER, null));
+            }
+            long inserted = db.insertWithOnConflict(Contract.Watchlist.TABLE_NAME, null, watched,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            db.setTransactionSuccessful();
+            notifyWatchlist(inserted != -1 ? 1 : 0);
+        } finally {
+            db.endTransaction();
+        }
+        return Contract.Watchlist.makeUriForSymbol(symbol);
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (Contract.METHOD_COMPACT.equals(method)) {
+            if (dbHelper.compact() > 0) {
+                notifyQuotes(null);
+            }
+            return null;
+        }
+        if (Contract.METHOD_RECORD_VIEW.equals(method)) {
+            SQLiteStatement increment = dbHelper.getWritableDatabase().compileStatement(INCREMENT_VIEWS);
+            try {
+                increment.bindString(1, arg);
+                notifyWatchlist(increment.executeUpdateDelete());
+            } finally {
+                increment.close();
+            }
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private static String[] prepend(String first, String[] rest) {
+        if (rest == null) {
+            return new String[]{first};
+        }
+        String[] args = new String[rest.length + 1];
+        args[0] = first;
+        System.arraycopy(rest, 0, args, 1, rest.length);
+        return args;
+    }
+
+    private void notifyWatchlist(int rowsChanged) {
+        if (rowsChanged == 0) {
+            return;
+        }
+        Batch current = batch.get();
+        if (current != null) {
+            current.watchlist = true;
+            return;
+        }
+        Context context = getContext();
+        if (context != null) {
+            context.getContentResolver().notifyChange(Contract.Watchlist.URI, null);
+        }
+    }
+
+    /**
+     * Tells the observers of every changed symbol, then the lists once for the whole write
+     * with the changed symbols in the uri. Null means any row may have changed.
+     */
+    private void notifyQuotes(Collection<String> symbols) {
+        Batch current = batch.get();
+        if (current != null) {
+            if (symbols == null) {
+                current.allQuotes = true;
+            } else {
+                current.symbols.addAll(symbols);
+            }
+            return;
+        }
+        Context context = getContext();
+        if (context == null || (symbols != null && symbols.isEmpty())) {
+            return;
+        }
+        ContentResolver resolver = context.getContentResolver();
+        if (symbols == null) {
+            resolver.notifyChange(Contract.Quote.URI, null);
+            resolver.notifyChange(Contract.Quote.SUMMARY_URI, null);
+            return;
+        }
+        for (String symbol : symbols) {
+            resolver.notifyChange(Contract.Quote.makeUriForStock(symbol), null);
+        }
+        resolver.notifyChange(Contract.Quote.makeUriForChanges(symbols), null);
+    }
+
+    // Only the charts of the symbol watch its history, the lists don't.
+    private void notifyHistory(Uri uri) {
+        Batch current = batch.get();
+        if (current != null) {
+            current.history.add(uri.buildUpon().clearQuery().build());
+            return;
+        }
+        Context context = getContext();
+        if (context != null) {
+            context.getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    // Leaving out from or to leaves that end of the range open.
+    private static long getBound(Uri uri, String parameter, long open) {
+        String bound = uri.getQueryParameter(parameter);
+        return bound != null ? Long.parseLong(bound) : open;
+    }
+
+    private static int getResolution(Uri uri) {
+        String resolution = uri.getQueryParameter(Contract.History.PARAM_RESOLUTION);
+        return resolution != null ? Integer.parseInt(resolution) : Contract.History.RESOLUTION_DAILY;
+    }
+
+    /**
+     * Updates the quotes in place and inserts the symbols that have no row yet, skipping rows
+     * whose content didn't change since the last write, so an idle sync costs neither disk
+     * writes nor a reload of every observer. Returns the symbols whose rows were written.
+     */
+    private static Set<String> upsertQuotes(SQLiteDatabase db, ContentValues[] values) {
+        Set<String> changed = new LinkedHashSet<>();
+        db.beginTransaction();
+        SQLiteStatement update = db.compileStatement(UPDATE_QUOTE);
+        SQLiteStatement insert = db.compileStatement(INSERT_QUOTE);
+        SQLiteStatement select = db.compileStatement(SELECT_FINGERPRINT);
+        try {
+            for (ContentValues value : values) {
+                String symbol = value.getAsString(Contract.Quote.COLUMN_SYMBOL);
+                long fingerprint = fingerprint(value);
+                Long stored = getFingerprint(select, symbol);
+                if (stored != null && stored == fingerprint) {
+                    continue;
                 }
 
-                Context context = getContext();
-                if (context != null) {
-                    context.getContentResolver().notifyChange(uri, null);
+                bindPrices(update, value, fingerprint);
+                update.bindString(5, symbol);
+                if (stored != null && update.executeUpdateDelete() > 0) {
+                    changed.add(symbol);
+                    continue;
+                }
+                bindPrices(insert, value, fingerprint);
+                insert.bindString(5, symbol);
+                if (insert.executeInsert() != -1) {
+                    changed.add(symbol);
                 }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            update.close();
+            insert.close();
+            select.close();
+            db.endTransaction();
+        }
+        return changed;
+    }
 
-                return returnCount;
-            default:
-                return super.bulkInsert(uri, values);
+    // Price, changes and fingerprint, the symbol is the fifth parameter.
+    private static void bindPrices(SQLiteStatement statement, ContentValues value, long fingerprint) {
+        statement.bindDouble(1, value.getAsDouble(Contract.Quote.COLUMN_PRICE));
+        statement.bindDouble(2, value.getAsDouble(Contract.Quote.COLUMN_ABSOLUTE_CHANGE));
+        statement.bindDouble(3, value.getAsDouble(Contract.Quote.COLUMN_PERCENTAGE_CHANGE));
+        statement.bindLong(4, fingerprint);
+    }
+
+    private int applyTicks(SQLiteDatabase db, ContentValues[] ticks) {
+        Set<String> changed = new LinkedHashSet<>();
+        db.beginTransaction();
+        SQLiteStatement update = db.compileStatement(UPDATE_QUOTE);
+        try {
+            for (ContentValues tick : ticks) {
+                // The row no longer matches what the last sync wrote, so the next sync must
+                // not skip it as unchanged.
+                String symbol = tick.getAsString(Contract.Quote.COLUMN_SYMBOL);
+                bindPrices(update, tick, 0);
+                update.bindString(5, symbol);
+                if (update.executeUpdateDelete() > 0) {
+                    changed.add(symbol);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            update.close();
+            db.endTransaction();
+        }
+
+        notifyQuotes(changed);
+        return changed.size();
+    }
+
+    // Null if the symbol has no row yet.
+    private static Long getFingerprint(SQLiteStatement select, String symbol) {
+        select.bindString(1, symbol);
+        try {
+            return select.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return null;
         }
     }
+
+    private static long fingerprint(ContentValues value) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (String column : FINGERPRINT_COLUMNS) {
+            String content = value.getAsString(column);
+            hasher.putString(content != null ? content : "", Charsets.UTF_8);
+            hasher.putByte((byte) 0);
+        }
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * What a batch changed, to be notified once it committed.
+     */
+    private static final class Batch {
+
+        final Set<String> symbols = new LinkedHashSet<>();
+        final Set<Uri> history = new LinkedHashSet<>();
+        final Set<Pair<String, Integer>> toSeal = new LinkedHashSet<>();
+        boolean allQuotes;
+        boolean watchlist;
+    }
 }
@@ -0,0 +1,368 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.udacity.stockhawk.data.Contract.Symbol;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Searches the symbol directory. The directory is a full-text table, so prefix searches over
+ * symbols and company names are answered from its index; prefixes of up to three characters
+ * have an index of their own. Typos are caught by comparing the query with every symbol, which
+ * are kept sorted in memory, a few thousand short strings that also answer exact lookups.
+ */
+final class SymbolDirectory {
+
+    private static final String[] ROW_COLUMNS = {
+            "docid",
+            Symbol.COLUMN_SYMBOL,
+            Symbol.COLUMN_NAME,
+            Symbol.COLUMN_EXCHANGE
+    };
+    private static final String UPDATE_SYMBOL = "UPDATE " + Symbol.TABLE_NAME + " SET "
+            + Symbol.COLUMN_NAME + " = ?, "
+            + Symbol.COLUMN_EXCHANGE + " = ? WHERE docid = ?";
+    private static final String INSERT_SYMBOL = "INSERT INTO " + Symbol.TABLE_NAME + " ("
+            + Symbol.COLUMN_NAME + ", "
+            + Symbol.COLUMN_EXCHANGE + ", "
+            + Symbol.COLUMN_SYMBOL + ") VALUES (?, ?, ?)";
+    // Shorter queries match too many symbols by accident.
+    private static final int MIN_FUZZY_LENGTH = 2;
+
+    private final DbHelper dbHelper;
+    // Null until the first search and after every write.
+    private Index index;
+
+    SymbolDirectory(DbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + Symbol.TABLE_NAME + " USING fts4("
+                + Symbol.COLUMN_SYMBOL + ", "
+                + Symbol.COLUMN_NAME + ", "
+                + Symbol.COLUMN_EXCHANGE + ", "
+                + "notindexed=" + Symbol.COLUMN_EXCHANGE + ", "
+                + "prefix=\"1,2,3\");");
+    }
+
+    /**
+     * Fills the directory from CSV lines of symbol, name and exchange. Must run inside a
+     * transaction.
+     */
+    static int load(SQLiteDatabase db, Reader csv) throws IOException {
+        List<ContentValues> rows = new ArrayList<>();
+        CSVReader reader = new CSVReader(csv);
+        try {
+            for (String[] line : reader.readAll()) {
+                if (line.length < 3 || TextUtils.isEmpty(line[0].trim())) {
+                    continue;
+                }
+                ContentValues row = new ContentValues();
+                row.put(Symbol.COLUMN_SYMBOL, line[0].trim());
+                row.put(Symbol.COLUMN_NAME, line[1].trim());
+                row.put(Symbol.COLUMN_EXCHANGE, line[2].trim());
+                rows.add(row);
+            }
+        } finally {
+            reader.close();
+        }
+        return insert(db, rows.toArray(new ContentValues[rows.size()]));
+    }
+
+    /**
+     * Writes rows, replacing the ones stored for the same symbols. Must run inside a
+     * transaction.
+     */
+    static int insert(SQLiteDatabase db, ContentValues[] rows) {
+        // Full-text tables have no unique constraint, the rows are matched up by hand.
+        Map<String, Long> stored = new HashMap<>();
+        Cursor cursor = db.query(Symbol.TABLE_NAME, new String[]{"docid", Symbol.COLUMN_SYMBOL},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                stored.put(cursor.getString(1), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int returnCount = 0;
+        SQLiteStatement update = db.compileStatement(UPDATE_SYMBOL);
+        SQLiteStatement insert = db.compileStatement(INSERT_SYMBOL);
+        try {
+            for (ContentValues row : rows) {
+                String symbol = row.getAsString(Symbol.COLUMN_SYMBOL).toUpperCase(Locale.US);
+                Long docid = stored.get(symbol);
+                SQLiteStatement statement = docid != null ? update : insert;
+                statement.bindString(1, row.getAsString(Symbol.COLUMN_NAME));
+                statement.bindString(2, row.getAsString(Symbol.COLUMN_EXCHANGE));
+                if (docid != null) {
+                    statement.bindLong(3, docid);
+                    returnCount += statement.executeUpdateDelete();
+                } else {
+                    statement.bindString(3, symbol);
+                    long inserted = statement.executeInsert();
+                    if (inserted != -1) {
+                        stored.put(symbol, inserted);
+                        returnCount++;
+                    }
+                }
+            }
+        } finally {
+            update.close();
+            insert.close();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Forgets the in-memory index, for after the table was written.
+     */
+    synchronized void invalidate() {
+        index = null;
+    }
+
+    /**
+     * The row of a symbol, or an empty cursor if it isn't in the directory.
+     */
+    Cursor lookup(String symbol, String[] projection) {
+        long docid = getIndex().find(symbol.trim().toUpperCase(Locale.US));
+        if (docid == -1) {
+            return toCursor(projection, Collections.<Object[]>emptyList());
+        }
+        return toCursor(projection, readRows(Collections.singletonList(docid)));
+    }
+
+    /**
+     * Up to limit rows matching the query, symbols equal to it first, then ones starting with
+     * its words or with company names starting with them, then symbols a typo away.
+     */
+    Cursor search(String query, String[] projection, int limit) {
+        String normalized = query.trim().toUpperCase(Locale.US);
+        String match = toMatch(normalized);
+        if (match.isEmpty() || limit <= 0) {
+            return toCursor(projection, Collections.<Object[]>emptyList());
+        }
+
+        Map<Long, Object[]> rows = new LinkedHashMap<>();
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        // Raw, the order by takes an argument of its own.
+        Cursor cursor = db.rawQuery("SELECT " + TextUtils.join(", ", ROW_COLUMNS) + " FROM "
+                        + Symbol.TABLE_NAME + " WHERE " + Symbol.TABLE_NAME + " MATCH ? ORDER BY ("
+                        + Symbol.COLUMN_SYMBOL + " = ?) DESC, length(" + Symbol.COLUMN_SYMBOL + "), "
+                        + Symbol.COLUMN_SYMBOL + " LIMIT " + limit,
+                new String[]{match, normalized});
+        try {
+            while (cursor.moveToNext()) {
+                rows.put(cursor.getLong(0), toRow(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (rows.size() < limit && normalized.length() >= MIN_FUZZY_LENGTH) {
+            List<Long> similar = getIndex().findSimilar(normalized, limit);
+            similar.removeAll(rows.keySet());
+            similar = similar.subList(0, Math.min(similar.size(), limit - rows.size()));
+            for (Object[] row : readRows(similar)) {
+                rows.put((Long) row[0], row);
+            }
+        }
+        return toCursor(projection, new ArrayList<>(rows.values()));
+    }
+
+    private synchronized Index getIndex() {
+        if (index == null) {
+            index = Index.read(dbHelper.getReadableDatabase());
+        }
+        return index;
+    }
+
+    // Rows of the given docids, in that order.
+    private List<Object[]> readRows(List<Long> docids) {
+        if (docids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String[] args = new String[docids.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.valueOf(docids.get(i));
+        }
+        Map<Long, Object[]> rows = new HashMap<>();
+        Cursor cursor = dbHelper.getReadableDatabase().query(Symbol.TABLE_NAME, ROW_COLUMNS,
+                "docid IN (" + TextUtils.join(", ", Collections.nCopies(args.length, "?")) + ")",
+                args, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                rows.put(cursor.getLong(0), toRow(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        List<Object[]> ordered = new ArrayList<>(rows.size());
+        for (Long docid : docids) {
+            Object[] row = rows.get(docid);
+            if (row != null) {
+                ordered.add(row);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Every word of the query as a prefix term. Terms are lower case, in upper case the
+     * words AND, OR and NOT would be operators.
+     */
+    private static String toMatch(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : query.toLowerCase(Locale.US).split("[^\\p{Alnum}]+")) {
+            if (!word.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word).append('*');
+            }
+        }
+        return match.toString();
+    }
+
+    // A row in ROW_COLUMNS order.
+    private static Object[] toRow(Cursor cursor) {
+        return new Object[]{cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.getString(3)};
+    }
+
+    private static Cursor toCursor(String[] projection, List<Object[]> rows) {
+        String[] columns = projection != null ? projection : Symbol.COLUMNS.toArray(new String[]{});
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = Symbol.COLUMNS.indexOf(columns[i]);
+            if (indexes[i] == -1) {
+                throw new IllegalArgumentException("Unknown symbol column: " + columns[i]);
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(columns, rows.size());
+        for (Object[] row : rows) {
+            Object[] values = new Object[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                values[i] = row[indexes[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Every symbol of the directory with its docid, sorted by symbol.
+     */
+    private static final class Index {
+
+        private final String[] symbols;
+        private final long[] docids;
+
+        private Index(String[] symbols, long[] docids) {
+            this.symbols = symbols;
+            this.docids = docids;
+        }
+
+        static Index read(SQLiteDatabase db) {
+            Cursor cursor = db.query(Symbol.TABLE_NAME, new String[]{"docid", Symbol.COLUMN_SYMBOL},
+                    null, null, null, null, Symbol.COLUMN_SYMBOL);
+            try {
+                String[] symbols = new String[cursor.getCount()];
+                long[] docids = new long[symbols.length];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    docids[i] = cursor.getLong(0);
+                    symbols[i] = cursor.getString(1);
+                }
+                return new Index(symbols, docids);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        long find(String symbol) {
+            int i = Arrays.binarySearch(symbols, symbol);
+            return i >= 0 ? docids[i] : -1;
+        }
+
+        /**
+         * Docids of up to limit symbols within one edit of the query, two for queries longer
+         * than four characters, the closest first.
+         */
+        List<Long> findSimilar(String query, int limit) {
+            int maxDistance = query.length() > 4 ? 2 : 1;
+            List<List<Long>> byDistance = new ArrayList<>(maxDistance + 1);
+            for (int d = 0; d <= maxDistance; d++) {
+                byDistance.add(new ArrayList<Long>());
+            }
+            for (int i = 0; i < symbols.length; i++) {
+                int distance = distance(query, symbols[i], maxDistance);
+                if (distance <= maxDistance) {
+                    byDistance.get(distance).add(docids[i]);
+                }
+            }
+            List<Long> similar = new ArrayList<>();
+            for (List<Long> docidsAtDistance : byDistance) {
+                similar.addAll(docidsAtDistance);
+            }
+            return similar.size() > limit ? new ArrayList<>(similar.subList(0, limit)) : similar;
+        }
+
+        /**
+         * Edits, swapping two neighbours counting as one, between a and b, or more than max
+         * once that is certain.
+         */
+        private static int distance(String a, String b, int max) {
+            if (Math.abs(a.length() - b.length()) > max) {
+                return max + 1;
+            }
+            int[] previous2 = new int[b.length() + 1];
+            int[] previous = new int[b.length() + 1];
+            int[] current = new int[b.length() + 1];
+            for (int j = 0; j <= b.length(); j++) {
+                previous[j] = j;
+            }
+            for (int i = 1; i <= a.length(); i++) {
+                current[0] = i;
+                int rowMin = current[0];
+                for (int j = 1; j <= b.length(); j++) {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+                            previous[j - 1] + cost);
+                    if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2)
+                            && a.charAt(i - 2) == b.charAt(j - 1)) {
+                        value = Math.min(value, previous2[j - 2] + 1);
+                    }
+                    current[j] = value;
+                    rowMin = Math.min(rowMin, value);
+                }
+                if (rowMin > max) {
+                    return max + 1;
+                }
+                int[] recycled = previous2;
+                previous2 = previous;
+                previous = current;
+                current = recycled;
+            }
+            return previous[b.length()];
+        }
+    }
+}
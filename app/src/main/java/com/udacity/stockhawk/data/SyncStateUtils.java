@@ -0,0 +1,223 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Keeps the outcome of the last sync of every symbol in its watchlist row. A symbol that failed
+ * is retried with an exponential backoff instead of on every run. Also remembers when the
+ * history of a symbol was last fetched and how often it was looked at, which decides when
+ * history is downloaded.
+ */
+public final class SyncStateUtils {
+
+    private static final long INITIAL_BACKOFF = TimeUnit.MINUTES.toMillis(5);
+    private static final long MAX_BACKOFF = TimeUnit.HOURS.toMillis(6);
+
+    private SyncStateUtils() {
+    }
+
+    /**
+     * The symbols that are not waiting out a backoff.
+     */
+    public static String[] getDueSymbols(Context context, String[] symbols) {
+        Set<String> waiting = new HashSet<>();
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Watchlist.URI,
+                new String[]{Contract.Watchlist.COLUMN_SYMBOL},
+                Contract.Watchlist.COLUMN_RETRY_AT + " > ?",
+                new String[]{String.valueOf(System.currentTimeMillis())},
+                null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    waiting.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        List<String> due = new ArrayList<>(symbols.length);
+        for (String symbol : symbols) {
+            if (!waiting.contains(symbol)) {
+                due.add(symbol);
+            }
+        }
+        return due.toArray(new String[due.size()]);
+    }
+
+    public static String getError(Context context, String symbol) {
+        Cursor cursor = query(context, symbol, Contract.Watchlist.COLUMN_ERROR);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public static int getFailures(Context context, String symbol) {
+        return (int) getLong(context, symbol, Contract.Watchlist.COLUMN_FAILURES);
+    }
+
+    /**
+     * Records the outcome of a sync run in one transaction: succeeded symbols are cleared,
+     * failed ones keep their error and get their next attempt pushed back.
+     */
+    public static void update(Context context, Collection<String> succeeded, Map<String, String> failed) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        ContentValues cleared = new ContentValues();
+        cleared.put(Contract.Watchlist.COLUMN_FAILURES, 0);
+        cleared.put(Contract.Watchlist.COLUMN_RETRY_AT, 0);
+        cleared.putNull(Contract.Watchlist.COLUMN_ERROR);
+        for (String symbol : succeeded) {
+            // Most symbols have nothing to clear, those rows aren't rewritten.
+            operations.add(ContentProviderOperation
+                    .newUpdate(Contract.Watchlist.makeUriForSymbol(symbol))
+                    .withValues(cleared)
+                    .withSelection(Contract.Watchlist.COLUMN_FAILURES + " > 0", null)
+                    .build());
+        }
+
+        Map<String, Integer> previous = getFailures(context, failed.keySet());
+        for (Map.Entry<String, String> failure : failed.entrySet()) {
+            String symbol = failure.getKey();
+            Integer failedBefore = previous.get(symbol);
+            int failures = (failedBefore == null ? 0 : failedBefore) + 1;
+            long backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(failures - 1, 16));
+            ContentValues values = new ContentValues();
+            values.put(Contract.Watchlist.COLUMN_FAILURES, failures);
+            values.put(Contract.Watchlist.COLUMN_RETRY_AT, now + backoff);
+            values.put(Contract.Watchlist.COLUMN_ERROR, failure.getValue());
+            operations.add(ContentProviderOperation
+                    .newUpdate(Contract.Watchlist.makeUriForSymbol(symbol))
+                    .withValues(values)
+                    .build());
+        }
+
+        apply(context, operations);
+    }
+
+    public static long getHistorySyncedAt(Context context, String symbol) {
+        return getLong(context, symbol, Contract.Watchlist.COLUMN_HISTORY_AT);
+    }
+
+    public static void setHistorySyncedAt(Context context, Collection<String> symbols, long syncedAt) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(symbols.size());
+        for (String symbol : symbols) {
+            operations.add(ContentProviderOperation
+                    .newUpdate(Contract.Watchlist.makeUriForSymbol(symbol))
+                    .withValue(Contract.Watchlist.COLUMN_HISTORY_AT, syncedAt)
+                    .build());
+        }
+        apply(context, operations);
+    }
+
+    public static void recordView(Context context, String symbol) {
+        context.getContentResolver().call(Contract.Watchlist.URI, Contract.METHOD_RECORD_VIEW, symbol, null);
+    }
+
+    /**
+     * Up to count of the given symbols, the most viewed first. Symbols that were never viewed
+     * are left out.
+     */
+    public static List<String> getMostViewed(Context context, Collection<String> symbols, int count) {
+        List<String> viewed = new ArrayList<>();
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Watchlist.URI,
+                new String[]{Contract.Watchlist.COLUMN_SYMBOL},
+                Contract.Watchlist.COLUMN_VIEWS + " > 0",
+                null,
+                Contract.Watchlist.COLUMN_VIEWS + " DESC");
+        if (cursor == null) {
+            return viewed;
+        }
+        try {
+            while (viewed.size() < count && cursor.moveToNext()) {
+                String symbol = cursor.getString(0);
+                if (symbols.contains(symbol)) {
+                    viewed.add(symbol);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return viewed;
+    }
+
+    private static Map<String, Integer> getFailures(Context context, Collection<String> symbols) {
+        Map<String, Integer> failures = new HashMap<>();
+        if (symbols.isEmpty()) {
+            return failures;
+        }
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Watchlist.URI,
+                new String[]{Contract.Watchlist.COLUMN_SYMBOL, Contract.Watchlist.COLUMN_FAILURES},
+                Contract.Watchlist.COLUMN_FAILURES + " > 0",
+                null,
+                null);
+        if (cursor == null) {
+            return failures;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String symbol = cursor.getString(0);
+                if (symbols.contains(symbol)) {
+                    failures.put(symbol, cursor.getInt(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return failures;
+    }
+
+    private static long getLong(Context context, String symbol, String column) {
+        Cursor cursor = query(context, symbol, column);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Cursor query(Context context, String symbol, String column) {
+        return context.getContentResolver().query(
+                Contract.Watchlist.makeUriForSymbol(symbol),
+                new String[]{column},
+                null, null, null);
+    }
+
+    private static void apply(Context context, ArrayList<ContentProviderOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            context.getContentResolver().applyBatch(Contract.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Timber.e(e, "Error saving the sync state");
+        }
+    }
+}
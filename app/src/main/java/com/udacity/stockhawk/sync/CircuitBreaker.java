@@ -0,0 +1,128 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+
+import com.udacity.stockhawk.R;
+
+import timber.log.Timber;
+
+/**
+ * Stops calling the upstream after it failed several times in a row. Once open, the breaker
+ * lets a single trial request through when its open period is over (half-open): if it succeeds
+ * the breaker closes, if it fails the breaker opens again for twice as long. The state is kept
+ * in preferences so a restarted process doesn't start hammering the upstream again.
+ */
+final class CircuitBreaker {
+
+    private static final String PREFS_NAME = "upstream_breaker";
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_RETRY_AT = "retry_at";
+    private static final String KEY_OPEN_COUNT = "open_count";
+
+    private static CircuitBreaker instance;
+
+    private final SharedPreferences prefs;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long maxOpenMillis;
+
+    private int failures;
+    // When the breaker may half-open, 0 while it is closed.
+    private long retryAt;
+    // How many times in a row it opened, to grow the open period.
+    private int openCount;
+    private boolean trialInFlight;
+
+    private CircuitBreaker(Context context) {
+        Resources resources = context.getResources();
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        failureThreshold = resources.getInteger(R.integer.upstream_breaker_failures);
+        openMillis = resources.getInteger(R.integer.upstream_breaker_open_millis);
+        maxOpenMillis = resources.getInteger(R.integer.upstream_breaker_max_open_millis);
+
+        failures = prefs.getInt(KEY_FAILURES, 0);
+        retryAt = prefs.getLong(KEY_RETRY_AT, 0);
+        openCount = prefs.getInt(KEY_OPEN_COUNT, 0);
+    }
+
+    static synchronized CircuitBreaker get(Context context) {
+        if (instance == null) {
+            instance = new CircuitBreaker(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * True while the breaker is open and not yet due for a trial request.
+     */
+    synchronized boolean isOpen() {
+        return retryAt > System.currentTimeMillis();
+    }
+
+    /**
+     * When the breaker may let a request through again, or 0 if it is closed.
+     */
+    synchronized long getRetryAt() {
+        return retryAt;
+    }
+
+    /**
+     * Asks to make a request. Returns false if the breaker is open, or half-open with its one
+     * trial request already in flight.
+     */
+    synchronized boolean allowRequest() {
+        if (retryAt == 0) {
+            return true;
+        }
+        if (retryAt > System.currentTimeMillis() || trialInFlight) {
+            return false;
+        }
+        Timber.d("Upstream circuit half-open, sending a trial request");
+        trialInFlight = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        if (failures == 0 && retryAt == 0) {
+            return;
+        }
+        if (retryAt != 0) {
+            Timber.i("Upstream circuit closed");
+        }
+        failures = 0;
+        retryAt = 0;
+        openCount = 0;
+        trialInFlight = false;
+        save();
+    }
+
+    /**
+     * For a request that ended without saying anything about the upstream, a symbol it doesn't
+     * know or a request we cancelled ourselves. Only lets the next trial through if this was one.
+     */
+    synchronized void onIgnored() {
+        trialInFlight = false;
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        if (trialInFlight || (retryAt == 0 && failures >= failureThreshold)) {
+            long period = Math.min(maxOpenMillis, openMillis << Math.min(openCount, 16));
+            openCount++;
+            retryAt = System.currentTimeMillis() + period;
+            trialInFlight = false;
+            Timber.w("Upstream circuit open for %d ms after %d failures", period, failures);
+        }
+        save();
+    }
+
+    private void save() {
+        prefs.edit()
+                .putInt(KEY_FAILURES, failures)
+                .putLong(KEY_RETRY_AT, retryAt)
+                .putInt(KEY_OPEN_COUNT, openCount)
+                .apply();
+    }
+}
@@ -0,0 +1,13 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making a request while the upstream is known to be refusing us.
+ */
+final class CircuitOpenException extends IOException {
+
+    CircuitOpenException(long retryAt) {
+        super("Upstream circuit open until " + retryAt);
+    }
+}
@@ -0,0 +1,115 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Puts the upstream behind a rate limiter and a circuit breaker. Every request waits for a token
+ * first, and none is made while the breaker is open; those fail right away with
+ * {@link CircuitOpenException}.
+ */
+final class GuardedQuoteSource implements QuoteSource {
+
+    private static final ThreadLocal<AdmissionListener> admissionListener = new ThreadLocal<>();
+
+    private final QuoteSource delegate;
+    private final TokenBucket rateLimiter;
+    private final CircuitBreaker breaker;
+
+    GuardedQuoteSource(QuoteSource delegate, TokenBucket rateLimiter, CircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.rateLimiter = rateLimiter;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public Map<String, QuoteSnapshot> getQuotes(String[] symbols) throws IOException {
+        before();
+        try {
+            Map<String, QuoteSnapshot> quotes = delegate.getQuotes(symbols);
+            breaker.onSuccess();
+            return quotes;
+        } catch (IOException | RuntimeException | Error e) {
+            onError(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<HistoryBar> getHistory(String symbol, Calendar from, Calendar to) throws IOException {
+        before();
+        try {
+            List<HistoryBar> history = delegate.getHistory(symbol, from, to);
+            breaker.onSuccess();
+            return history;
+        } catch (IOException | RuntimeException | Error e) {
+            onError(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Has listener told about every request made on the calling thread, until it is set to null
+     * again.
+     */
+    static void setAdmissionListener(AdmissionListener listener) {
+        admissionListener.set(listener);
+    }
+
+    private void before() throws IOException {
+        AdmissionListener listener = admissionListener.get();
+        if (listener != null) {
+            listener.onWaiting();
+        }
+        try {
+            rateLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the rate limiter");
+        }
+        if (!breaker.allowRequest()) {
+            throw new CircuitOpenException(breaker.getRetryAt());
+        }
+        if (listener != null) {
+            listener.onAdmitted();
+        }
+    }
+
+    /**
+     * Only transport errors, throttling and server errors count against the upstream. Anything
+     * else, a 404 for a delisted symbol or a request our own watchdog cancelled, just releases
+     * the half-open trial if this was it.
+     */
+    private void onError(Throwable e) {
+        if (isUpstreamFault(e)) {
+            breaker.onFailure();
+        } else {
+            breaker.onIgnored();
+        }
+    }
+
+    private static boolean isUpstreamFault(Throwable e) {
+        if (!(e instanceof IOException) || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (e instanceof UpstreamResponseException) {
+            return ((UpstreamResponseException) e).isUpstreamFault();
+        }
+        // Timeouts talking to the upstream are its fault, interruptions are ours.
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Lets a caller timing its requests leave out the time they spend waiting for a token.
+     */
+    interface AdmissionListener {
+
+        void onWaiting();
+
+        void onAdmitted();
+    }
+}
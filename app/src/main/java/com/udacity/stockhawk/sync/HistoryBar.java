@@ -0,0 +1,33 @@
+package com.udacity.stockhawk.sync;
+
+import java.math.BigDecimal;
+
+/**
+ * One bar of history: a day, or a week or month once rolled up, keyed by the time it starts.
+ */
+final class HistoryBar {
+
+    final long timestamp;
+    final BigDecimal open;
+    final BigDecimal high;
+    final BigDecimal low;
+    final BigDecimal close;
+    final long volume;
+
+    HistoryBar(long timestamp, BigDecimal open, BigDecimal high, BigDecimal low,
+               BigDecimal close, long volume) {
+        this.timestamp = timestamp;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.volume = volume;
+    }
+
+    /**
+     * A bar known only by its close, as older recordings have them.
+     */
+    HistoryBar(long timestamp, BigDecimal close) {
+        this(timestamp, close, close, close, close, 0);
+    }
+}
@@ -0,0 +1,152 @@
+package com.udacity.stockhawk.sync;
+
+import android.os.SystemClock;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Downloads the history of several symbols at once on a bounded pool. Every request gets its own
+ * timeout, counted from the moment it actually goes upstream rather than from when it was
+ * queued or while it waits for the rate limiter, and results are handed back as they complete.
+ * Symbols that failed or timed out are missing from the result and reported by
+ * {@link #getFailures()}.
+ */
+final class HistoryFetcher {
+
+    private static final long WATCHDOG_INTERVAL_MILLIS = 250;
+
+    private final QuoteSource source;
+    private final int concurrency;
+    private final long timeoutMillis;
+    private final Map<String, String> failures = new HashMap<>();
+    private final Map<String, Long> durations = new HashMap<>();
+
+    HistoryFetcher(QuoteSource source, int concurrency, long timeoutMillis) {
+        this.source = source;
+        this.concurrency = Math.max(1, concurrency);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    Map<String, List<HistoryBar>> fetch(Map<String, Calendar> requests, Calendar to)
+            throws InterruptedException {
+        Map<String, List<HistoryBar>> results = new HashMap<>();
+        if (requests.isEmpty()) {
+            return results;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, requests.size()));
+        CompletionService<List<HistoryBar>> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<List<HistoryBar>>, HistoryTask> pending = new HashMap<>();
+
+        try {
+            for (Map.Entry<String, Calendar> request : requests.entrySet()) {
+                HistoryTask task = new HistoryTask(request.getKey(), request.getValue(), to);
+                pending.put(completion.submit(task), task);
+            }
+
+            while (!pending.isEmpty()) {
+                Future<List<HistoryBar>> done =
+                        completion.poll(WATCHDOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    HistoryTask task = pending.remove(done);
+                    if (task.startedAt > 0) {
+                        durations.put(task.symbol, SystemClock.elapsedRealtime() - task.startedAt);
+                    }
+                    try {
+                        results.put(task.symbol, done.get());
+                    } catch (ExecutionException e) {
+                        Timber.w(e.getCause(), "Error fetching history for '%s'", task.symbol);
+                        failures.put(task.symbol, String.valueOf(e.getCause()));
+                    } catch (CancellationException e) {
+                        Timber.w("History request for '%s' timed out", task.symbol);
+                        failures.put(task.symbol, "History request timed out");
+                    }
+                    continue;
+                }
+                cancelExpired(pending);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Timber.d("Fetched history for %d/%d symbols in %d ms",
+                results.size(), requests.size(), SystemClock.elapsedRealtime() - start);
+        return results;
+    }
+
+    Map<String, String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * How long every request that got to run took, failed and timed out ones included.
+     */
+    Map<String, Long> getDurations() {
+        return durations;
+    }
+
+    private void cancelExpired(Map<Future<List<HistoryBar>>, HistoryTask> pending) {
+        long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<Future<List<HistoryBar>>, HistoryTask> entry : pending.entrySet()) {
+            long startedAt = entry.getValue().startedAt;
+            // Cancelled futures are still queued on the completion service, they are
+            // reported and removed from pending when polled.
+            if (startedAt > 0 && now - startedAt > timeoutMillis) {
+                entry.getKey().cancel(true);
+            }
+        }
+    }
+
+    private final class HistoryTask implements Callable<List<HistoryBar>>,
+            GuardedQuoteSource.AdmissionListener {
+
+        private final String symbol;
+        private final Calendar from;
+        private final Calendar to;
+        private volatile long startedAt;
+
+        HistoryTask(String symbol, Calendar from, Calendar to) {
+            this.symbol = symbol;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public List<HistoryBar> call() throws Exception {
+            // Sources without a rate limiter start right away, a guarded one stops the clock
+            // while the request waits for its token.
+            startedAt = SystemClock.elapsedRealtime();
+            GuardedQuoteSource.setAdmissionListener(this);
+            try {
+                return source.getHistory(symbol, from, to);
+            } finally {
+                GuardedQuoteSource.setAdmissionListener(null);
+            }
+        }
+
+        @Override
+        public void onWaiting() {
+            startedAt = 0;
+        }
+
+        @Override
+        public void onAdmitted() {
+            startedAt = SystemClock.elapsedRealtime();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.udacity.stockhawk.sync;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import com.udacity.stockhawk.data.SyncStateUtils;
+
+import timber.log.Timber;
+
+/**
+ * Downloads the history of one symbol on demand, next to and independently of the quote sync,
+ * so opening a symbol doesn't wait for a whole watchlist refresh. Also counts the view, off the
+ * thread that opened the symbol.
+ */
+public class HistoryIntentService extends IntentService {
+
+    static final String EXTRA_SYMBOL = "com.udacity.stockhawk.sync.EXTRA_SYMBOL";
+
+    public HistoryIntentService() {
+        super(HistoryIntentService.class.getSimpleName());
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        String symbol = intent.getStringExtra(EXTRA_SYMBOL);
+        Timber.d("History requested for '%s'", symbol);
+        if (symbol == null) {
+            return;
+        }
+        // The view counts even offline, it decides what regular syncs prefetch.
+        SyncStateUtils.recordView(getApplicationContext(), symbol);
+
+        ConnectivityManager cm = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = cm.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnectedOrConnecting()) {
+            return;
+        }
+        QuoteSyncJob.getHistory(getApplicationContext(),
+                QuoteSources.getDefault(getApplicationContext()),
+                symbol);
+    }
+}
@@ -0,0 +1,312 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.SyncStateUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Downloads and stores the history of a few symbols, separately from the quote refresh. History
+ * is only fetched for symbols it is stale for: once their exchange closed a session after the
+ * last download there is a new bar to pick up, until then the stored one is as good as it gets.
+ * <p>
+ * Daily bars are downloaded once for the whole window and then only the new days. Weekly and
+ * monthly bars are rolled up from them, and every resolution keeps its own span, by default a
+ * year of days, five years of weeks and ten years of months.
+ */
+final class HistoryLoader {
+
+    // For symbols whose exchange calendar can't tell when the next session closes.
+    private static final long FALLBACK_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int[] RESOLUTIONS = {
+            Contract.History.RESOLUTION_DAILY,
+            Contract.History.RESOLUTION_WEEKLY,
+            Contract.History.RESOLUTION_MONTHLY
+    };
+
+    private final Context context;
+    private final QuoteSource source;
+    private final Calendar from = Calendar.getInstance();
+    private final Calendar to = Calendar.getInstance();
+    private final long monthlyFrom;
+    private final long weeklyFrom;
+    private final long dailyFrom;
+    private final Map<String, TreeMap<Long, HistoryBar>> storedDaily = new HashMap<>();
+    private final Map<String, String> failures = new HashMap<>();
+    private Map<String, List<HistoryBar>> fetched = Collections.emptyMap();
+    private Map<String, Long> durations = Collections.emptyMap();
+    private long parseMillis;
+
+    HistoryLoader(Context context, QuoteSource source) {
+        this.context = context;
+        this.source = source;
+        long now = to.getTimeInMillis();
+        monthlyFrom = getWindowStart(context, Contract.History.RESOLUTION_MONTHLY, now);
+        weeklyFrom = getWindowStart(context, Contract.History.RESOLUTION_WEEKLY, now);
+        dailyFrom = getWindowStart(context, Contract.History.RESOLUTION_DAILY, now);
+        from.setTimeInMillis(monthlyFrom);
+    }
+
+    /**
+     * The oldest bar of a resolution that is kept.
+     */
+    static long getWindowStart(Context context, int resolution, long now) {
+        Resources resources = context.getResources();
+        int days;
+        if (resolution == Contract.History.RESOLUTION_DAILY) {
+            days = resources.getInteger(R.integer.history_daily_days);
+        } else if (resolution == Contract.History.RESOLUTION_WEEKLY) {
+            days = resources.getInteger(R.integer.history_weekly_days);
+        } else {
+            days = resources.getInteger(R.integer.history_monthly_days);
+        }
+        return now - TimeUnit.DAYS.toMillis(days);
+    }
+
+    static boolean isStale(Context context, String symbol, long now) {
+        long syncedAt = SyncStateUtils.getHistorySyncedAt(context, symbol);
+        if (syncedAt == 0) {
+            return true;
+        }
+        MarketCalendar.Exchange exchange = MarketCalendar.forSymbol(symbol);
+        long nextOpen = exchange.isOpen(syncedAt) ? syncedAt : exchange.nextOpen(syncedAt);
+        if (nextOpen == Long.MAX_VALUE) {
+            return now - syncedAt > FALLBACK_MAX_AGE_MILLIS;
+        }
+        return exchange.closeOf(nextOpen) <= now;
+    }
+
+    /**
+     * The most viewed of the given symbols whose history is stale, so a regular sync can keep
+     * the ones the user actually looks at ready.
+     */
+    static List<String> getPrefetchSymbols(Context context, Collection<String> symbols) {
+        Resources resources = context.getResources();
+        int count = resources.getInteger(R.integer.history_prefetch_count);
+        long now = System.currentTimeMillis();
+        List<String> prefetch = new ArrayList<>();
+        for (String symbol : SyncStateUtils.getMostViewed(context, symbols, count)) {
+            if (isStale(context, symbol, now)) {
+                prefetch.add(symbol);
+            }
+        }
+        return prefetch;
+    }
+
+    /**
+     * Downloads the history of the given symbols. Only the days after the last stored one are
+     * asked for, unless the stored daily series is missing or broken, in which case the whole
+     * window is downloaded again and every resolution is rebuilt.
+     */
+    void fetch(Collection<String> symbols) throws InterruptedException {
+        if (symbols.isEmpty()) {
+            return;
+        }
+        long parseStart = SystemClock.elapsedRealtime();
+        loadStored(symbols);
+        parseMillis += SystemClock.elapsedRealtime() - parseStart;
+
+        Map<String, Calendar> requests = new HashMap<>();
+        for (String symbol : symbols) {
+            TreeMap<Long, HistoryBar> storedHistory = storedDaily.get(symbol);
+            Calendar historyFrom = from;
+            long syncedAt = SyncStateUtils.getHistorySyncedAt(context, symbol);
+            if (HistoryMerger.isConsistent(storedHistory, syncedAt)) {
+                historyFrom = Calendar.getInstance();
+                historyFrom.setTimeInMillis(Math.max(storedHistory.lastKey(), from.getTimeInMillis()));
+                Timber.d("Incremental history for '%s' from %d", symbol, historyFrom.getTimeInMillis());
+            } else {
+                storedDaily.remove(symbol);
+                Timber.d("Full history for '%s'", symbol);
+            }
+            requests.put(symbol, historyFrom);
+        }
+
+        Resources resources = context.getResources();
+        HistoryFetcher fetcher = new HistoryFetcher(
+                source,
+                resources.getInteger(R.integer.sync_history_concurrency),
+                resources.getInteger(R.integer.sync_history_timeout_millis));
+        try {
+            fetched = fetcher.fetch(requests, to);
+        } finally {
+            failures.putAll(fetcher.getFailures());
+            durations = fetcher.getDurations();
+        }
+    }
+
+    /**
+     * Writes whatever was fetched in one batch and returns how many bars changed.
+     */
+    int commit() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        addOperations(operations);
+        int changed = QuoteSyncJob.applyBatch(context, operations);
+        if (changed < 0) {
+            return 0;
+        }
+        onCommitted();
+        return changed;
+    }
+
+    /**
+     * Adds the operations writing whatever was fetched. A symbol whose request failed keeps
+     * the series it already had.
+     */
+    void addOperations(ArrayList<ContentProviderOperation> operations) {
+        for (Map.Entry<String, List<HistoryBar>> entry : fetched.entrySet()) {
+            String symbol = entry.getKey();
+            List<HistoryBar> bars = entry.getValue();
+            TreeMap<Long, HistoryBar> stored = storedDaily.get(symbol);
+            if (bars.isEmpty() && stored != null) {
+                // Nothing new since the last download.
+                continue;
+            }
+            long parseStart = SystemClock.elapsedRealtime();
+            TreeMap<Long, HistoryBar> daily = HistoryMerger.merge(stored, bars, from.getTimeInMillis());
+            if (daily.isEmpty()) {
+                Timber.w("No historical quotes for '%s'", symbol);
+                continue;
+            }
+
+            // Only the weeks and months the new days fall into change, the older bars stay as
+            // they are in the table. Without stored days everything is rebuilt.
+            long since = daily.firstKey();
+            if (stored != null) {
+                since = Long.MAX_VALUE;
+                for (HistoryBar bar : bars) {
+                    since = Math.min(since, bar.timestamp);
+                }
+            } else {
+                for (int resolution : RESOLUTIONS) {
+                    operations.add(ContentProviderOperation
+                            .newDelete(Contract.History.makeUriForHistory(symbol, resolution))
+                            .build());
+                }
+            }
+            TreeMap<Long, HistoryBar> weekly = HistoryRollup.rollUp(
+                    daily, since, HistoryRollup.WEEKLY);
+            TreeMap<Long, HistoryBar> monthly = HistoryRollup.rollUp(
+                    daily, since, HistoryRollup.MONTHLY);
+            parseMillis += SystemClock.elapsedRealtime() - parseStart;
+
+            write(operations, symbol, Contract.History.RESOLUTION_DAILY, daily.tailMap(since), dailyFrom);
+            write(operations, symbol, Contract.History.RESOLUTION_WEEKLY, weekly, weeklyFrom);
+            write(operations, symbol, Contract.History.RESOLUTION_MONTHLY, monthly, monthlyFrom);
+        }
+    }
+
+    /**
+     * Marks the fetched histories as synced, once the operations writing them committed.
+     */
+    void onCommitted() {
+        SyncStateUtils.setHistorySyncedAt(context, fetched.keySet(), System.currentTimeMillis());
+    }
+
+    Map<String, List<HistoryBar>> getFetched() {
+        return fetched;
+    }
+
+    Map<String, String> getFailures() {
+        return failures;
+    }
+
+    Map<String, Long> getDurations() {
+        return durations;
+    }
+
+    /**
+     * Time spent reading, merging and rolling up stored series.
+     */
+    long getParseMillis() {
+        return parseMillis;
+    }
+
+    private void loadStored(Collection<String> symbols) {
+        for (String symbol : symbols) {
+            TreeMap<Long, HistoryBar> series = readBars(context, Contract.History.makeUriForHistory(
+                    symbol, Contract.History.RESOLUTION_DAILY, dailyFrom, to.getTimeInMillis()));
+            if (!series.isEmpty()) {
+                storedDaily.put(symbol, series);
+            }
+        }
+    }
+
+    /**
+     * The bars behind a history URI, which must give a range.
+     */
+    static TreeMap<Long, HistoryBar> readBars(Context context, Uri uri) {
+        String[] projection = {
+                Contract.History.COLUMN_TIMESTAMP,
+                Contract.History.COLUMN_OPEN,
+                Contract.History.COLUMN_HIGH,
+                Contract.History.COLUMN_LOW,
+                Contract.History.COLUMN_CLOSE,
+                Contract.History.COLUMN_VOLUME};
+        TreeMap<Long, HistoryBar> series = new TreeMap<>();
+        Cursor cursor = context.getContentResolver().query(uri, projection, null, null, null);
+        if (cursor == null) {
+            return series;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                long timestamp = cursor.getLong(0);
+                series.put(timestamp, new HistoryBar(timestamp,
+                        BigDecimal.valueOf(cursor.getDouble(1)),
+                        BigDecimal.valueOf(cursor.getDouble(2)),
+                        BigDecimal.valueOf(cursor.getDouble(3)),
+                        BigDecimal.valueOf(cursor.getDouble(4)),
+                        cursor.getLong(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return series;
+    }
+
+    static ContentProviderOperation newInsert(Uri uri, HistoryBar bar) {
+        ContentValues value = new ContentValues();
+        value.put(Contract.History.COLUMN_TIMESTAMP, bar.timestamp);
+        value.put(Contract.History.COLUMN_OPEN, bar.open.doubleValue());
+        value.put(Contract.History.COLUMN_HIGH, bar.high.doubleValue());
+        value.put(Contract.History.COLUMN_LOW, bar.low.doubleValue());
+        value.put(Contract.History.COLUMN_CLOSE, bar.close.doubleValue());
+        value.put(Contract.History.COLUMN_VOLUME, bar.volume);
+        return ContentProviderOperation.newInsert(uri).withValues(value).build();
+    }
+
+    /**
+     * Stores the bars of a resolution and drops the ones that fell out of its window.
+     */
+    private static void write(ArrayList<ContentProviderOperation> operations, String symbol,
+                              int resolution, SortedMap<Long, HistoryBar> bars, long windowStart) {
+        Uri uri = Contract.History.makeUriForHistory(symbol, resolution);
+        for (HistoryBar bar : bars.tailMap(windowStart).values()) {
+            operations.add(newInsert(uri, bar));
+        }
+        operations.add(ContentProviderOperation
+                .newDelete(Contract.History.makeUriForHistory(symbol, resolution, 0, windowStart - 1))
+                .build());
+    }
+}
@@ -0,0 +1,116 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.data.SyncStateUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Keeps stored history within its retention policy. Every resolution keeps the window the
+ * history loader writes; bars that fell out of it are rolled up into the next coarser
+ * resolution where that has no bar of its own yet, and dropped. The history of symbols nobody
+ * looked at for a while goes altogether, it is downloaded again when they are opened. What is
+ * left of symbols that are no longer watched is removed and the database file is compacted.
+ */
+final class HistoryMaintenance {
+
+    private HistoryMaintenance() {
+    }
+
+    /**
+     * Returns false if the database couldn't be written, so the job runs again.
+     */
+    static boolean run(Context context) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        long idleBefore = now - TimeUnit.DAYS.toMillis(
+                context.getResources().getInteger(R.integer.history_idle_days));
+        long dailyFrom = HistoryLoader.getWindowStart(context, Contract.History.RESOLUTION_DAILY, now);
+        long weeklyFrom = HistoryLoader.getWindowStart(context, Contract.History.RESOLUTION_WEEKLY, now);
+        long monthlyFrom = HistoryLoader.getWindowStart(context, Contract.History.RESOLUTION_MONTHLY, now);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        List<String> idle = new ArrayList<>();
+        for (String symbol : PrefUtils.getStocks(context)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long syncedAt = SyncStateUtils.getHistorySyncedAt(context, symbol);
+            if (syncedAt != 0 && syncedAt < idleBefore) {
+                idle.add(symbol);
+                for (int resolution : new int[]{
+                        Contract.History.RESOLUTION_DAILY,
+                        Contract.History.RESOLUTION_WEEKLY,
+                        Contract.History.RESOLUTION_MONTHLY}) {
+                    operations.add(ContentProviderOperation
+                            .newDelete(Contract.History.makeUriForHistory(symbol, resolution))
+                            .build());
+                }
+                continue;
+            }
+            downsample(context, operations, symbol, Contract.History.RESOLUTION_DAILY,
+                    HistoryRollup.WEEKLY, dailyFrom);
+            downsample(context, operations, symbol, Contract.History.RESOLUTION_WEEKLY,
+                    HistoryRollup.MONTHLY, weeklyFrom);
+            operations.add(ContentProviderOperation
+                    .newDelete(Contract.History.makeUriForHistory(
+                            symbol, Contract.History.RESOLUTION_MONTHLY, 0, monthlyFrom - 1))
+                    .build());
+        }
+
+        int changed = QuoteSyncJob.applyBatch(context, operations);
+        if (changed < 0) {
+            return false;
+        }
+        // Their next view downloads the whole window again.
+        SyncStateUtils.setHistorySyncedAt(context, idle, 0);
+        Timber.d("Retention changed %d bars, dropped the history of %d idle symbols",
+                changed, idle.size());
+
+        try {
+            context.getContentResolver().call(Contract.Quote.URI, Contract.METHOD_COMPACT, null, null);
+        } catch (SQLiteException e) {
+            // Busy with a sync most likely, the next run compacts.
+            Timber.w(e, "Error compacting the database");
+        }
+        return true;
+    }
+
+    /**
+     * Rolls the bars of a resolution from before its window up into the coarser one and adds
+     * their removal. Buckets the coarser series already has are left as they are, they were
+     * built from complete data. Weeks count towards the month they start in.
+     */
+    private static void downsample(Context context, ArrayList<ContentProviderOperation> operations,
+                                   String symbol, int resolution, int coarser, long windowStart) {
+        TreeMap<Long, HistoryBar> expired = HistoryLoader.readBars(context,
+                Contract.History.makeUriForHistory(symbol, resolution, 0, windowStart - 1));
+        if (expired.isEmpty()) {
+            return;
+        }
+        TreeMap<Long, HistoryBar> rolledUp = HistoryRollup.rollUp(expired, expired.firstKey(), coarser);
+        Set<Long> stored = HistoryLoader.readBars(context, Contract.History.makeUriForHistory(
+                symbol, coarser, rolledUp.firstKey(), rolledUp.lastKey())).keySet();
+        Uri uri = Contract.History.makeUriForHistory(symbol, coarser);
+        for (HistoryBar bar : rolledUp.values()) {
+            if (!stored.contains(bar.timestamp)) {
+                operations.add(HistoryLoader.newInsert(uri, bar));
+            }
+        }
+        operations.add(ContentProviderOperation
+                .newDelete(Contract.History.makeUriForHistory(symbol, resolution, 0, windowStart - 1))
+                .build());
+    }
+}
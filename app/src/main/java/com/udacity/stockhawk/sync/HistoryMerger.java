@@ -0,0 +1,62 @@
+package com.udacity.stockhawk.sync;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges freshly downloaded daily bars into the history already stored for a symbol, so the
+ * sync only has to ask for the bars newer than the last one it has.
+ */
+final class HistoryMerger {
+
+    // Daily bars, so anything wider than ten days (long holidays included) is a hole.
+    private static final long MAX_GAP_MILLIS = TimeUnit.DAYS.toMillis(10);
+
+    private HistoryMerger() {
+    }
+
+    /**
+     * A stored daily series can be extended incrementally only if it has no holes in it. A
+     * series the sync wrote itself (syncedAt isn't 0) holds exactly the bars the provider had,
+     * and incremental downloads only ever extend it, so its gaps are the provider's: trading
+     * halts or suspensions that downloading the window again wouldn't fill. Only series that
+     * came from elsewhere, an older schema, are checked for holes.
+     */
+    static boolean isConsistent(SortedMap<Long, HistoryBar> series, long syncedAt) {
+        if (series == null || series.isEmpty()) {
+            return false;
+        }
+        if (syncedAt != 0) {
+            return true;
+        }
+        long previous = series.firstKey();
+        for (Long timestamp : series.keySet()) {
+            if (timestamp - previous > MAX_GAP_MILLIS) {
+                return false;
+            }
+            previous = timestamp;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the fetched bars on top of the stored ones (the last stored bar may have been a
+     * partial day, so fetched bars win) and drops whatever fell out of the window.
+     */
+    static TreeMap<Long, HistoryBar> merge(SortedMap<Long, HistoryBar> stored,
+                                           List<HistoryBar> fetched,
+                                           long windowStart) {
+        TreeMap<Long, HistoryBar> merged = new TreeMap<>();
+        if (stored != null) {
+            merged.putAll(stored.tailMap(windowStart));
+        }
+        for (HistoryBar it : fetched) {
+            if (it.timestamp >= windowStart) {
+                merged.put(it.timestamp, it);
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,72 @@
+package com.udacity.stockhawk.sync;
+
+import com.udacity.stockhawk.data.Contract;
+
+import java.util.Calendar;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import yahoofinance.YahooFinance;
+
+/**
+ * Builds weekly and monthly bars out of daily ones. Only the buckets new daily bars fall into
+ * are rebuilt, the older ones stay as stored, so the coarse series can reach much further
+ * back than the daily bars that are kept.
+ */
+final class HistoryRollup {
+
+    static final int WEEKLY = Contract.History.RESOLUTION_WEEKLY;
+    static final int MONTHLY = Contract.History.RESOLUTION_MONTHLY;
+
+    // The zone bar dates are given in.
+    private static final TimeZone ZONE = TimeZone.getTimeZone(YahooFinance.TIMEZONE);
+
+    private HistoryRollup() {
+    }
+
+    /**
+     * Rolls daily bars up into the given resolution, from the bucket holding since on. Daily
+     * must hold every day of those buckets.
+     */
+    static TreeMap<Long, HistoryBar> rollUp(SortedMap<Long, HistoryBar> daily, long since, int resolution) {
+        long firstBucket = bucketOf(since, resolution);
+        TreeMap<Long, HistoryBar> rolledUp = new TreeMap<>();
+        for (HistoryBar day : daily.tailMap(firstBucket).values()) {
+            long bucket = bucketOf(day.timestamp, resolution);
+            HistoryBar bar = rolledUp.get(bucket);
+            rolledUp.put(bucket, bar == null ? startBucket(bucket, day) : extend(bar, day));
+        }
+        return rolledUp;
+    }
+
+    static long bucketOf(long timestamp, int resolution) {
+        Calendar calendar = Calendar.getInstance(ZONE);
+        calendar.setFirstDayOfWeek(Calendar.MONDAY);
+        calendar.setTimeInMillis(timestamp);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (resolution == MONTHLY) {
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        } else {
+            calendar.set(Calendar.DAY_OF_WEEK, Calendar.MONDAY);
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    private static HistoryBar startBucket(long bucket, HistoryBar day) {
+        return new HistoryBar(bucket, day.open, day.high, day.low, day.close, day.volume);
+    }
+
+    // Days come in order, so the later one sets the close.
+    private static HistoryBar extend(HistoryBar bar, HistoryBar day) {
+        return new HistoryBar(bar.timestamp,
+                bar.open,
+                bar.high.max(day.high),
+                bar.low.min(day.low),
+                day.close,
+                bar.volume + day.volume);
+    }
+}
@@ -0,0 +1,87 @@
+package com.udacity.stockhawk.sync;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+
+import com.udacity.stockhawk.R;
+
+import timber.log.Timber;
+
+/**
+ * Runs {@link HistoryMaintenance} about once a day, only while the device is idle and charging
+ * so it never competes with the user or a sync for the database.
+ */
+public class MaintenanceJobService extends JobService {
+
+    private static final int JOB_ID = 3;
+
+    private Thread worker;
+
+    /**
+     * Schedules the job unless it already is, rescheduling would restart its period.
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        long period = context.getResources().getInteger(R.integer.maintenance_period_millis);
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setPeriodic(period)
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+        final Context context = getApplicationContext();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean completed = false;
+                try {
+                    completed = HistoryMaintenance.run(context);
+                } catch (InterruptedException e) {
+                    Timber.d("Maintenance stopped");
+                    return;
+                }
+                if (finish()) {
+                    jobFinished(jobParameters, !completed);
+                }
+            }
+        }, "MaintenanceJobService");
+
+        synchronized (this) {
+            worker = thread;
+        }
+        thread.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        Thread thread;
+        synchronized (this) {
+            thread = worker;
+            worker = null;
+        }
+        if (thread == null) {
+            return false;
+        }
+        thread.interrupt();
+        return true;
+    }
+
+    private synchronized boolean finish() {
+        boolean running = worker != null;
+        worker = null;
+        return running;
+    }
+}
@@ -0,0 +1,199 @@
+package com.udacity.stockhawk.sync;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Trading hours and holidays of the exchanges a watchlist can contain. The exchange is taken
+ * from the Yahoo suffix of the symbol ({@code VOD.L}, {@code SAP.DE}, ...); symbols without a
+ * suffix trade in New York.
+ */
+final class MarketCalendar {
+
+    private static final int SEARCH_DAYS = 10;
+
+    private static final Exchange NEW_YORK = new Exchange("America/New_York", 9, 30, 16, 0, true);
+    private static final Exchange TORONTO = new Exchange("America/Toronto", 9, 30, 16, 0, false);
+    private static final Exchange LONDON = new Exchange("Europe/London", 8, 0, 16, 30, false);
+    private static final Exchange FRANKFURT = new Exchange("Europe/Berlin", 9, 0, 17, 30, false);
+    private static final Exchange PARIS = new Exchange("Europe/Paris", 9, 0, 17, 30, false);
+    private static final Exchange HONG_KONG = new Exchange("Asia/Hong_Kong", 9, 30, 16, 0, false);
+    private static final Exchange TOKYO = new Exchange("Asia/Tokyo", 9, 0, 15, 0, false);
+    private static final Exchange SYDNEY = new Exchange("Australia/Sydney", 10, 0, 16, 0, false);
+
+    private MarketCalendar() {
+    }
+
+    static Exchange forSymbol(String symbol) {
+        int dot = symbol.lastIndexOf('.');
+        if (dot < 0) {
+            return NEW_YORK;
+        }
+        switch (symbol.substring(dot + 1)) {
+            case "TO":
+            case "V":
+                return TORONTO;
+            case "L":
+                return LONDON;
+            case "DE":
+            case "F":
+                return FRANKFURT;
+            case "PA":
+                return PARIS;
+            case "HK":
+                return HONG_KONG;
+            case "T":
+                return TOKYO;
+            case "AX":
+                return SYDNEY;
+            default:
+                return NEW_YORK;
+        }
+    }
+
+    static final class Exchange {
+
+        private final TimeZone zone;
+        private final int openMinute;
+        private final int closeMinute;
+        private final boolean usHolidays;
+
+        private Exchange(String zone, int openHour, int openMinute, int closeHour, int closeMinute,
+                         boolean usHolidays) {
+            this.zone = TimeZone.getTimeZone(zone);
+            this.openMinute = openHour * 60 + openMinute;
+            this.closeMinute = closeHour * 60 + closeMinute;
+            this.usHolidays = usHolidays;
+        }
+
+        boolean isOpen(long millis) {
+            Calendar day = dayOf(millis);
+            return isTradingDay(day)
+                    && millis >= at(day, openMinute)
+                    && millis < at(day, closeMinute);
+        }
+
+        /**
+         * When today's session closes. Only meaningful while the exchange is open.
+         */
+        long closeOf(long millis) {
+            return at(dayOf(millis), closeMinute);
+        }
+
+        long nextOpen(long millis) {
+            Calendar day = dayOf(millis);
+            for (int i = 0; i < SEARCH_DAYS; i++) {
+                long open = at(day, openMinute);
+                if (isTradingDay(day) && open > millis) {
+                    return open;
+                }
+                day.add(Calendar.DAY_OF_MONTH, 1);
+            }
+            return Long.MAX_VALUE;
+        }
+
+        private Calendar dayOf(long millis) {
+            Calendar day = Calendar.getInstance(zone);
+            day.setTimeInMillis(millis);
+            day.set(Calendar.HOUR_OF_DAY, 0);
+            day.set(Calendar.MINUTE, 0);
+            day.set(Calendar.SECOND, 0);
+            day.set(Calendar.MILLISECOND, 0);
+            return day;
+        }
+
+        private long at(Calendar day, int minuteOfDay) {
+            Calendar time = (Calendar) day.clone();
+            time.set(Calendar.HOUR_OF_DAY, minuteOfDay / 60);
+            time.set(Calendar.MINUTE, minuteOfDay % 60);
+            return time.getTimeInMillis();
+        }
+
+        private boolean isTradingDay(Calendar day) {
+            int weekday = day.get(Calendar.DAY_OF_WEEK);
+            if (weekday == Calendar.SATURDAY || weekday == Calendar.SUNDAY) {
+                return false;
+            }
+            int month = day.get(Calendar.MONTH);
+            int date = day.get(Calendar.DAY_OF_MONTH);
+            if ((month == Calendar.JANUARY && date == 1) || (month == Calendar.DECEMBER && date == 25)) {
+                return false;
+            }
+            return !usHolidays || !isUsHoliday(day);
+        }
+    }
+
+    /**
+     * The NYSE holiday rules. Fixed-date holidays falling on a weekend are observed on the
+     * closest weekday.
+     */
+    private static boolean isUsHoliday(Calendar day) {
+        int year = day.get(Calendar.YEAR);
+        int month = day.get(Calendar.MONTH);
+        int date = day.get(Calendar.DAY_OF_MONTH);
+        int weekday = day.get(Calendar.DAY_OF_WEEK);
+        int weekOfMonth = (date - 1) / 7 + 1;
+        boolean lastWeekOfMonth = date + 7 > day.getActualMaximum(Calendar.DAY_OF_MONTH);
+
+        if (isObserved(day, Calendar.JANUARY, 1)
+                || isObserved(day, Calendar.JUNE, 19)
+                || isObserved(day, Calendar.JULY, 4)
+                || isObserved(day, Calendar.DECEMBER, 25)) {
+            return true;
+        }
+        if (weekday == Calendar.MONDAY) {
+            if ((month == Calendar.JANUARY || month == Calendar.FEBRUARY) && weekOfMonth == 3) {
+                return true;
+            }
+            if (month == Calendar.MAY && lastWeekOfMonth) {
+                return true;
+            }
+            if (month == Calendar.SEPTEMBER && weekOfMonth == 1) {
+                return true;
+            }
+        }
+        if (weekday == Calendar.THURSDAY && month == Calendar.NOVEMBER && weekOfMonth == 4) {
+            return true;
+        }
+        return isGoodFriday(year, month, date);
+    }
+
+    private static boolean isObserved(Calendar day, int month, int date) {
+        Calendar holiday = (Calendar) day.clone();
+        holiday.set(Calendar.MONTH, month);
+        holiday.set(Calendar.DAY_OF_MONTH, date);
+        int weekday = holiday.get(Calendar.DAY_OF_WEEK);
+        if (weekday == Calendar.SATURDAY) {
+            holiday.add(Calendar.DAY_OF_MONTH, -1);
+        } else if (weekday == Calendar.SUNDAY) {
+            holiday.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return holiday.get(Calendar.YEAR) == day.get(Calendar.YEAR)
+                && holiday.get(Calendar.DAY_OF_YEAR) == day.get(Calendar.DAY_OF_YEAR);
+    }
+
+    private static boolean isGoodFriday(int year, int month, int date) {
+        // Anonymous Gregorian algorithm for Easter Sunday.
+        int a = year % 19;
+        int b = year / 100;
+        int c = year % 100;
+        int d = b / 4;
+        int e = b % 4;
+        int f = (b + 8) / 25;
+        int g = (b - f + 1) / 3;
+        int h = (19 * a + b - d - g + 15) % 30;
+        int i = c / 4;
+        int k = c % 4;
+        int l = (32 + 2 * e + 2 * i - h - k) % 7;
+        int m = (a + 11 * h + 22 * l) / 451;
+        int easterMonth = (h + l - 7 * m + 114) / 31;
+        int easterDay = (h + l - 7 * m + 114) % 31 + 1;
+
+        Calendar goodFriday = Calendar.getInstance();
+        goodFriday.clear();
+        goodFriday.set(year, easterMonth - 1, easterDay);
+        goodFriday.add(Calendar.DAY_OF_MONTH, -2);
+        return goodFriday.get(Calendar.MONTH) == month
+                && goodFriday.get(Calendar.DAY_OF_MONTH) == date;
+    }
+}
@@ -0,0 +1,104 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import timber.log.Timber;
+
+/**
+ * Splits a watchlist into fixed-size quote requests. While the caller works on one chunk the next
+ * one is already being downloaded, and a chunk that fails is retried on its own; if it keeps
+ * failing it comes back empty instead of failing the whole sync.
+ */
+final class QuoteChunkFetcher implements Closeable {
+
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final QuoteSource source;
+    private final List<String[]> chunks = new ArrayList<>();
+    private final int maxAttempts;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Map<String, String> failures = new HashMap<>();
+    private Future<Map<String, QuoteSnapshot>> inFlight;
+    private int nextChunk;
+
+    QuoteChunkFetcher(QuoteSource source, String[] symbols, int chunkSize, int maxAttempts) {
+        this.source = source;
+        int size = Math.max(1, chunkSize);
+        for (int start = 0; start < symbols.length; start += size) {
+            chunks.add(Arrays.copyOfRange(symbols, start, Math.min(symbols.length, start + size)));
+        }
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    boolean hasNext() {
+        return inFlight != null || nextChunk < chunks.size();
+    }
+
+    Map<String, QuoteSnapshot> next() throws InterruptedException {
+        if (inFlight == null) {
+            inFlight = submit(nextChunk++);
+        }
+        String[] currentChunk = chunks.get(nextChunk - 1);
+        Future<Map<String, QuoteSnapshot>> current = inFlight;
+        inFlight = nextChunk < chunks.size() ? submit(nextChunk++) : null;
+
+        try {
+            return current.get();
+        } catch (ExecutionException e) {
+            Timber.e(e.getCause(), "Error fetching stock quotes, skipping chunk");
+            for (String symbol : currentChunk) {
+                failures.put(symbol, String.valueOf(e.getCause()));
+            }
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * The symbols of every chunk that failed so far, with the error that failed it. These are
+     * failures of the request, not of the symbols in it.
+     */
+    Map<String, String> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Future<Map<String, QuoteSnapshot>> submit(int index) {
+        final String[] chunk = chunks.get(index);
+        return executor.submit(new Callable<Map<String, QuoteSnapshot>>() {
+            @Override
+            public Map<String, QuoteSnapshot> call() throws Exception {
+                IOException failure = null;
+                for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+                    try {
+                        return source.getQuotes(chunk);
+                    } catch (CircuitOpenException e) {
+                        throw e;
+                    } catch (IOException e) {
+                        failure = e;
+                        Timber.w(e, "Quote chunk attempt %d/%d failed", attempt, maxAttempts);
+                        if (attempt < maxAttempts) {
+                            Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                        }
+                    }
+                }
+                throw failure;
+            }
+        });
+    }
+}
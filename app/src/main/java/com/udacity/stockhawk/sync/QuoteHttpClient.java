@@ -0,0 +1,138 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import com.udacity.stockhawk.R;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import timber.log.Timber;
+import yahoofinance.YahooFinance;
+
+/**
+ * The one HTTP client every quote and history request goes through. {@link YahooQuoteSource}
+ * makes its requests on it directly: connections are pooled and kept alive between requests,
+ * bodies are gzipped, and responses land in an on-disk cache that revalidates with
+ * ETag/Last-Modified.
+ */
+final class QuoteHttpClient {
+
+    private static final String CACHE_DIR = "http";
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static final AtomicLong bytesReceived = new AtomicLong();
+
+    private static OkHttpClient client;
+
+    private QuoteHttpClient() {
+    }
+
+    static synchronized OkHttpClient get(Context context) {
+        if (client == null) {
+            client = build(context.getApplicationContext());
+            Timber.d("HTTP client created");
+        }
+        return client;
+    }
+
+    /**
+     * Bytes read off the network for quote and history requests since the process started.
+     * Responses served from the cache don't count, and neither does the live quote stream.
+     */
+    static long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private static OkHttpClient build(Context context) {
+        Resources resources = context.getResources();
+        final long historyMaxAge = resources.getInteger(R.integer.http_history_max_age_seconds);
+
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .cache(new Cache(new File(context.getCacheDir(), CACHE_DIR),
+                        resources.getInteger(R.integer.http_cache_size_bytes)))
+                .addNetworkInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        Response response = chain.proceed(chain.request());
+                        String url = chain.request().url().toString();
+                        if (!url.startsWith(YahooFinance.QUOTES_BASE_URL)
+                                && !url.startsWith(YahooFinance.HISTQUOTES_BASE_URL)) {
+                            return response;
+                        }
+                        response = response.newBuilder()
+                                .body(new CountingBody(response.body()))
+                                .build();
+
+                        // Yahoo sends history without any freshness information. Daily bars of
+                        // closed sessions don't change, so let the cache answer repeated requests
+                        // for http_history_max_age_seconds before revalidating them.
+                        boolean history = url.startsWith(YahooFinance.HISTQUOTES_BASE_URL);
+                        if (history && response.isSuccessful()
+                                && response.header("Cache-Control") == null) {
+                            return response.newBuilder()
+                                    .removeHeader("Pragma")
+                                    .header("Cache-Control", "public, max-age=" + historyMaxAge)
+                                    .build();
+                        }
+                        return response;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Counts the body as it is read. Network interceptors see the body before it is gunzipped,
+     * so this is what actually went over the wire.
+     */
+    private static final class CountingBody extends ResponseBody {
+
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        CountingBody(ResponseBody delegate) {
+            this.delegate = delegate;
+            this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read > 0) {
+                        bytesReceived.addAndGet(read);
+                    }
+                    return read;
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+}
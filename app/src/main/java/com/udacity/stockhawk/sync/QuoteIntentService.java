@@ -15,6 +15,15 @@ public class QuoteIntentService extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         Timber.d("Intent handled");
-        QuoteSyncJob.getQuotes(getApplicationContext());
+        try {
+            QuoteSyncJob.getQuotes(getApplicationContext(),
+                    QuoteSources.fromIntent(getApplicationContext(), intent),
+                    QuoteSources.symbolsFromIntent(intent),
+                    SyncMetrics.start("request",
+                            intent.getLongExtra(SyncCoordinator.EXTRA_REQUESTED_AT, 0)));
+        } finally {
+            SyncCoordinator.onSyncFinished(getApplicationContext());
+            SyncScheduler.scheduleNext(getApplicationContext());
+        }
     }
 }
@@ -2,25 +2,90 @@ package com.udacity.stockhawk.sync;
 
 import android.app.job.JobParameters;
 import android.app.job.JobService;
-import android.content.Intent;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
 
 import timber.log.Timber;
 
+/**
+ * Runs the sync on a worker thread inside the job, so the job holds its wakelock exactly as long
+ * as the sync runs. When the system stops the job the worker is interrupted; the sync commits
+ * what it already fetched and the job asks to be rescheduled.
+ */
 public class QuoteJobService extends JobService {
 
+    private final SparseArray<Thread> workers = new SparseArray<>();
 
     @Override
-    public boolean onStartJob(JobParameters jobParameters) {
-        Timber.d("Intent handled");
-        Intent nowIntent = new Intent(getApplicationContext(), QuoteIntentService.class);
-        getApplicationContext().startService(nowIntent);
+    public boolean onStartJob(final JobParameters jobParameters) {
+        final int jobId = jobParameters.getJobId();
+        Timber.d("Job %d started", jobId);
+
+        final Context context = getApplicationContext();
+        if (CircuitBreaker.get(context).isOpen()) {
+            Timber.d("Job %d skipped, the upstream circuit is open", jobId);
+            // Scheduling while this job runs could replace it under its own id, so the next run,
+            // pushed back past the moment the breaker half-opens, is scheduled once it finished.
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    jobFinished(jobParameters, false);
+                    SyncScheduler.scheduleNext(context);
+                }
+            });
+            return true;
+        }
+        if (!SyncCoordinator.tryBegin(context)) {
+            Timber.d("Job %d has nothing to do, a sync is running or just finished", jobId);
+            return false;
+        }
+
+        final long dueAt = SyncScheduler.getDueAt(context, jobId);
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean completed = false;
+                try {
+                    completed = QuoteSyncJob.getQuotes(context,
+                            SyncMetrics.start("job " + jobId, dueAt));
+                } finally {
+                    SyncCoordinator.onSyncFinished(context);
+                    if (removeWorker(jobId) != null) {
+                        Timber.d("Job %d finished, completed: %b", jobId, completed);
+                        jobFinished(jobParameters, !completed);
+                        if (completed) {
+                            SyncScheduler.scheduleNext(context);
+                        }
+                    }
+                }
+            }
+        }, "QuoteJobService-" + jobId);
+
+        synchronized (workers) {
+            workers.put(jobId, worker);
+        }
+        worker.start();
         return true;
     }
 
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        return false;
+        Thread worker = removeWorker(jobParameters.getJobId());
+        if (worker == null) {
+            return false;
+        }
+        Timber.d("Job %d stopped, interrupting its sync", jobParameters.getJobId());
+        worker.interrupt();
+        return true;
     }
 
-
+    private Thread removeWorker(int jobId) {
+        synchronized (workers) {
+            Thread worker = workers.get(jobId);
+            workers.remove(jobId);
+            return worker;
+        }
+    }
 }
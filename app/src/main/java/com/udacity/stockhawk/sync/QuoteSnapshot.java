@@ -0,0 +1,23 @@
+package com.udacity.stockhawk.sync;
+
+import java.math.BigDecimal;
+
+final class QuoteSnapshot {
+
+    final String symbol;
+    final BigDecimal price;
+    final BigDecimal change;
+    final BigDecimal changeInPercent;
+
+    QuoteSnapshot(String symbol, BigDecimal price, BigDecimal change, BigDecimal changeInPercent) {
+        this.symbol = symbol;
+        this.price = price;
+        this.change = change;
+        this.changeInPercent = changeInPercent;
+    }
+
+    @Override
+    public String toString() {
+        return symbol + ": " + price + " (" + change + ", " + changeInPercent + "%)";
+    }
+}
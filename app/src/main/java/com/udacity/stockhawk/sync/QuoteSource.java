@@ -0,0 +1,25 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the sync gets its quotes and history from. {@link YahooQuoteSource} is the one the app
+ * ships with, the others let the pipeline run without a network.
+ */
+interface QuoteSource {
+
+    /**
+     * Current quotes for the given symbols. Symbols the source doesn't know come back with null
+     * prices rather than being left out.
+     */
+    Map<String, QuoteSnapshot> getQuotes(String[] symbols) throws IOException;
+
+    /**
+     * Daily bars for a symbol between the two dates. Weekly and monthly bars are rolled up from
+     * these on the device.
+     */
+    List<HistoryBar> getHistory(String symbol, Calendar from, Calendar to) throws IOException;
+}
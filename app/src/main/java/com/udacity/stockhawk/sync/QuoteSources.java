@@ -0,0 +1,73 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+
+import com.udacity.stockhawk.R;
+
+import java.io.File;
+
+/**
+ * Picks the {@link QuoteSource} for a sync run. Runs started without extras use Yahoo, behind
+ * the process-wide rate limiter and circuit breaker; the extras below switch a run to replayed
+ * or synthetic data so the pipeline can be measured offline.
+ */
+final class QuoteSources {
+
+    static final String EXTRA_SOURCE = "com.udacity.stockhawk.sync.EXTRA_SOURCE";
+    static final String EXTRA_REPLAY_DIR = "com.udacity.stockhawk.sync.EXTRA_REPLAY_DIR";
+    static final String EXTRA_SYMBOL_COUNT = "com.udacity.stockhawk.sync.EXTRA_SYMBOL_COUNT";
+    static final String EXTRA_LATENCY_MILLIS = "com.udacity.stockhawk.sync.EXTRA_LATENCY_MILLIS";
+    static final String EXTRA_ERROR_RATE = "com.udacity.stockhawk.sync.EXTRA_ERROR_RATE";
+    static final String EXTRA_SEED = "com.udacity.stockhawk.sync.EXTRA_SEED";
+
+    static final String SOURCE_YAHOO = "yahoo";
+    static final String SOURCE_REPLAY = "replay";
+    static final String SOURCE_SYNTHETIC = "synthetic";
+
+    private static TokenBucket rateLimiter;
+
+    private QuoteSources() {
+    }
+
+    static QuoteSource getDefault(Context context) {
+        return new GuardedQuoteSource(new YahooQuoteSource(QuoteHttpClient.get(context)),
+                getRateLimiter(context),
+                CircuitBreaker.get(context));
+    }
+
+    static QuoteSource fromIntent(Context context, Intent intent) {
+        String source = intent != null ? intent.getStringExtra(EXTRA_SOURCE) : null;
+        if (SOURCE_REPLAY.equals(source)) {
+            return new ReplayQuoteSource(new File(intent.getStringExtra(EXTRA_REPLAY_DIR)));
+        } else if (SOURCE_SYNTHETIC.equals(source)) {
+            return new SyntheticQuoteSource(
+                    intent.getLongExtra(EXTRA_SEED, 0),
+                    intent.getLongExtra(EXTRA_LATENCY_MILLIS, 0),
+                    intent.getDoubleExtra(EXTRA_ERROR_RATE, 0));
+        }
+        return getDefault(context);
+    }
+
+    /**
+     * The symbols a synthetic run should simulate, or null to sync the user's watchlist.
+     */
+    static String[] symbolsFromIntent(Intent intent) {
+        if (intent == null || !SOURCE_SYNTHETIC.equals(intent.getStringExtra(EXTRA_SOURCE))) {
+            return null;
+        }
+        int count = intent.getIntExtra(EXTRA_SYMBOL_COUNT, 0);
+        return count > 0 ? SyntheticQuoteSource.symbols(count) : null;
+    }
+
+    private static synchronized TokenBucket getRateLimiter(Context context) {
+        if (rateLimiter == null) {
+            Resources resources = context.getResources();
+            rateLimiter = new TokenBucket(
+                    resources.getInteger(R.integer.upstream_rate_burst),
+                    resources.getInteger(R.integer.upstream_rate_per_minute) / 60.0);
+        }
+        return rateLimiter;
+    }
+}
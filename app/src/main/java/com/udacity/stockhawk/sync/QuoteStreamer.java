@@ -0,0 +1,155 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.TextUtils;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.PrefUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Keeps a connection to the tick feed open and applies the ticks to the quotes table while the
+ * app is in the foreground. The feed answers {@code GET <feed>?symbols=A,B} with a never ending
+ * text body of {@code symbol,price,change,percent_change} lines.
+ */
+public final class QuoteStreamer {
+
+    private static final long INITIAL_RECONNECT_DELAY = 1000;
+    private static final long MAX_RECONNECT_DELAY = 30000;
+
+    private final Context context;
+    private final String feedUrl;
+    // The running session, a new one for every start so a stopped reader can't keep going.
+    private Session session;
+
+    public QuoteStreamer(Context context) {
+        this(context, context.getString(R.string.stream_feed_url));
+    }
+
+    QuoteStreamer(Context context, String feedUrl) {
+        this.context = context.getApplicationContext();
+        this.feedUrl = feedUrl;
+    }
+
+    public synchronized void start() {
+        if (session != null) {
+            return;
+        }
+        final Session current = new Session();
+
+        Resources resources = context.getResources();
+        final HandlerThread flushThread =
+                new HandlerThread("QuoteStreamer-flush", Process.THREAD_PRIORITY_BACKGROUND);
+        flushThread.start();
+        final TickCoalescer coalescer = new TickCoalescer(
+                context.getContentResolver(),
+                new Handler(flushThread.getLooper()),
+                resources.getInteger(R.integer.stream_flush_interval_millis));
+
+        current.readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stream(current, coalescer);
+                coalescer.flushNow();
+                flushThread.quitSafely();
+            }
+        }, "QuoteStreamer-reader");
+        session = current;
+        current.readerThread.start();
+        Timber.d("Streaming started");
+    }
+
+    public synchronized void stop() {
+        Session current = session;
+        if (current == null) {
+            return;
+        }
+        session = null;
+        current.running = false;
+
+        HttpURLConnection connection = current.connection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+        current.readerThread.interrupt();
+        Timber.d("Streaming stopped");
+    }
+
+    private void stream(Session session, TickCoalescer coalescer) {
+        long reconnectDelay = INITIAL_RECONNECT_DELAY;
+        while (session.running) {
+            try {
+                read(session, coalescer);
+                reconnectDelay = INITIAL_RECONNECT_DELAY;
+            } catch (IOException e) {
+                if (!session.running) {
+                    return;
+                }
+                Timber.w(e, "Tick feed failed, reconnecting in %d ms", reconnectDelay);
+                try {
+                    Thread.sleep(reconnectDelay);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                reconnectDelay = Math.min(MAX_RECONNECT_DELAY, reconnectDelay * 2);
+            }
+        }
+    }
+
+    private void read(Session session, TickCoalescer coalescer) throws IOException {
+        Set<String> stocks = PrefUtils.getStocks(context);
+        Uri feed = Uri.parse(feedUrl).buildUpon()
+                .appendQueryParameter("symbols", TextUtils.join(",", stocks))
+                .build();
+
+        HttpURLConnection current = (HttpURLConnection) new URL(feed.toString()).openConnection();
+        current.setReadTimeout(context.getResources().getInteger(R.integer.stream_read_timeout_millis));
+        session.connection = current;
+        if (!session.running) {
+            // Stopped while connecting, stop() may have missed this connection.
+            current.disconnect();
+            return;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(current.getInputStream()));
+            String line;
+            while (session.running && (line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (fields.length < 4 || !stocks.contains(fields[0].trim())) {
+                    continue;
+                }
+                try {
+                    coalescer.offer(fields[0].trim(),
+                            Float.parseFloat(fields[1]),
+                            Float.parseFloat(fields[2]),
+                            Float.parseFloat(fields[3]));
+                } catch (NumberFormatException e) {
+                    Timber.w("Malformed tick '%s'", line);
+                }
+            }
+        } finally {
+            current.disconnect();
+            session.connection = null;
+        }
+    }
+
+    private static final class Session {
+
+        volatile boolean running = true;
+        volatile HttpURLConnection connection;
+        Thread readerThread;
+    }
+}
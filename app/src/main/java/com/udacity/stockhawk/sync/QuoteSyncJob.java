@@ -3,178 +3,318 @@ package com.udacity.stockhawk.sync;
 import android.app.job.JobInfo;
 import android.app.job.JobScheduler;
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.content.res.Resources;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.v4.content.LocalBroadcastManager;
+import android.text.TextUtils;
 import android.widget.Toast;
 
 import com.udacity.stockhawk.R;
 import com.udacity.stockhawk.data.Contract;
 import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.data.SyncStateUtils;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import timber.log.Timber;
-import yahoofinance.Stock;
-import yahoofinance.YahooFinance;
-import yahoofinance.histquotes.HistoricalQuote;
-import yahoofinance.histquotes.Interval;
-import yahoofinance.quotes.stock.StockQuote;
 
 public final class QuoteSyncJob {
 
     private static final int ONE_OFF_ID = 2;
     private static final String ACTION_DATA_UPDATED = "com.udacity.stockhawk.ACTION_DATA_UPDATED";
-    private static final int PERIOD = 300000;
+    public static final String ACTION_SYNC_FINISHED = "com.udacity.stockhawk.ACTION_SYNC_FINISHED";
     private static final int INITIAL_BACKOFF = 10000;
-    private static final int PERIODIC_ID = 1;
-    private static final int YEARS_OF_HISTORY = 2;
 
     private QuoteSyncJob() {
     }
 
-    static void getQuotes(final Context context) {
+    static boolean getQuotes(final Context context, SyncMetrics metrics) {
+        return getQuotes(context, QuoteSources.getDefault(context), null, metrics);
+    }
+
+    /**
+     * Runs a sync against the given source. When symbols is null the user's watchlist is synced.
+     * Returns false when the run was interrupted or nothing could be fetched, so it should be
+     * retried. The timings and counters of the run are added to the metrics, which end up in
+     * the {@link SyncMetricsLog}.
+     * <p>
+     * Only quotes are refreshed for the whole watchlist. History is fetched when a symbol is
+     * opened, see {@link #syncHistory(Context, String)}, and here only for the most viewed
+     * symbols whose history went stale.
+     */
+    static boolean getQuotes(final Context context, QuoteSource source, String[] symbols,
+                             SyncMetrics metrics) {
         Timber.d("Running sync job");
 
-        Calendar from = Calendar.getInstance();
-        Calendar to = Calendar.getInstance();
-        from.add(Calendar.YEAR, -YEARS_OF_HISTORY);
-        String symbol = null;
+        // Every symbol succeeds or fails on its own. Whatever was staged is committed at the
+        // end, even if the run is cut short.
+        Map<String, ContentValues> quoteCVs = new LinkedHashMap<>();
+        HistoryLoader historyLoader = new HistoryLoader(context, source);
+        // Symbols whose own quote was bad, they back off one by one.
+        Map<String, String> failures = new HashMap<>();
+        // Requests that failed as a whole. The circuit breaker and the job retry deal with
+        // those, the symbols in them did nothing wrong.
+        Map<String, String> requestFailures = new HashMap<>();
+        List<String> unknownSymbols = new ArrayList<>();
+        boolean completed = true;
         try {
 
-            Set<String> stockPref = PrefUtils.getStocks(context);
-            String[] stockArray = stockPref.toArray(new String[stockPref.size()]);
+            String[] stockArray = symbols;
+            if (stockArray == null) {
+                Set<String> stockPref = PrefUtils.getStocks(context);
+                stockArray = stockPref.toArray(new String[stockPref.size()]);
+            }
 
-            Timber.d(stockPref.toString());
+            Timber.d(Arrays.toString(stockArray));
 
+            int watched = stockArray.length;
+            stockArray = SyncStateUtils.getDueSymbols(context, stockArray);
+            metrics.setCount(SyncMetrics.COUNT_SYMBOLS, stockArray.length);
+            metrics.setCount(SyncMetrics.COUNT_BACKING_OFF, watched - stockArray.length);
             if (stockArray.length == 0) {
-                return;
+                return true;
             }
 
-            Map<String, Stock> quotes = YahooFinance.get(stockArray);
-
-            Timber.d(quotes.toString());
-
-            ArrayList<ContentValues> quoteCVs = new ArrayList<>();
-
-            for(Map.Entry<String,Stock> stocks:quotes.entrySet()){
-                symbol = stocks.getKey();
-
-                Stock stock = stocks.getValue();
-                StockQuote quote = stock.getQuote();
-                float price = quote.getPrice().floatValue();
-                float change = quote.getChange().floatValue();
-                float percentChange = quote.getChangeInPercent().floatValue();
-
-                List<HistoricalQuote> history = stock.getHistory(from, to, Interval.WEEKLY);
-
-                ContentValues quoteCV = new ContentValues();
-                quoteCV.put(Contract.Quote.COLUMN_SYMBOL, symbol);
-                quoteCV.put(Contract.Quote.COLUMN_PRICE, price);
-                quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, percentChange);
-                quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, change);
-
-                if(history.isEmpty()){
-                    Timber.w("No historical quotes for '"+ symbol + "'. Service will try to update next time");
-                }
-                else {
-                    StringBuilder historyBuilder = new StringBuilder();
-                    for (HistoricalQuote it : history) {
-                        historyBuilder.append(it.getDate().getTimeInMillis());
-                        historyBuilder.append(", ");
-                        historyBuilder.append(it.getClose());
-                        historyBuilder.append("\n");
+            QuoteChunkFetcher chunks = getQuoteChunkFetcher(context, source, stockArray);
+            try {
+                while (chunks.hasNext()) {
+                    long chunkStart = SystemClock.elapsedRealtime();
+                    Map<String, QuoteSnapshot> quotes = chunks.next();
+                    metrics.addPhase(SyncMetrics.PHASE_QUOTES,
+                            SystemClock.elapsedRealtime() - chunkStart);
+
+                    Timber.d(quotes.toString());
+
+                    for (QuoteSnapshot quote : quotes.values()) {
+                        String symbol = quote.symbol;
+                        if (quote.price == null || quote.change == null
+                                || quote.changeInPercent == null) {
+                            unknownSymbols.add(symbol);
+                            continue;
+                        }
+
+                        try {
+                            ContentValues quoteCV = new ContentValues();
+                            quoteCV.put(Contract.Quote.COLUMN_SYMBOL, symbol);
+                            quoteCV.put(Contract.Quote.COLUMN_PRICE, quote.price.floatValue());
+                            quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, quote.changeInPercent.floatValue());
+                            quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, quote.change.floatValue());
+
+                            quoteCVs.put(symbol, quoteCV);
+                        } catch (RuntimeException e) {
+                            Timber.e(e, "Error staging quote for '%s'", symbol);
+                            failures.put(symbol, e.toString());
+                        }
                     }
-                    quoteCV.put(Contract.Quote.COLUMN_HISTORY, historyBuilder.toString());
                 }
-
-                quoteCVs.add(quoteCV);
+            } finally {
+                requestFailures.putAll(chunks.getFailures());
+                chunks.close();
+            }
+            if (!requestFailures.isEmpty()) {
+                completed = false;
             }
 
-            context.getContentResolver()
-                    .bulkInsert(
-                            Contract.Quote.URI,
-                            quoteCVs.toArray(new ContentValues[quoteCVs.size()]));
-        }
-        catch (IOException exception) {
-            Timber.e(exception, "Error fetching stock quotes");
+            metrics.setCount(SyncMetrics.COUNT_QUOTES, quoteCVs.size());
+
+            List<String> prefetch = HistoryLoader.getPrefetchSymbols(context, quoteCVs.keySet());
+            long historyStart = SystemClock.elapsedRealtime();
+            try {
+                historyLoader.fetch(prefetch);
+            } finally {
+                metrics.addPhase(SyncMetrics.PHASE_HISTORY,
+                        SystemClock.elapsedRealtime() - historyStart);
+                metrics.setHistoryDurations(historyLoader.getDurations());
+                requestFailures.putAll(historyLoader.getFailures());
+            }
+            metrics.setCount(SyncMetrics.COUNT_HISTORIES, historyLoader.getFetched().size());
         }
-        catch (NullPointerException e){
-            final String message = context.getString(R.string.toast_stock_no_exist, symbol);
-            Timber.e(e,message);
-            PrefUtils.removeStock(context,symbol);
-            context.getContentResolver().notifyChange(Contract.Quote.URI,null);
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    Toast.makeText(context,message,Toast.LENGTH_LONG).show();
-                }
-            });
+        catch (InterruptedException e) {
+            Timber.w(e, "Sync interrupted, committing what was already fetched");
+            Thread.currentThread().interrupt();
+            completed = false;
         }
-        catch (final Exception ex){
-            final String message = context.getString(R.string.toast_error_retrieving_data);
-            Timber.e(ex,message);
-            PrefUtils.removeStock(context,symbol);
-            context.getContentResolver().notifyChange(Contract.Quote.URI,null);
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    Toast.makeText(context,message,Toast.LENGTH_LONG).show();
-                }
-            });
+        catch (RuntimeException e) {
+            Timber.e(e, "Unexpected error during sync, committing what was already fetched");
+            completed = false;
         }
         finally {
-            Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED);
-            context.sendBroadcast(dataUpdatedIntent);
+            long databaseStart = SystemClock.elapsedRealtime();
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            for (ContentValues quoteCV : quoteCVs.values()) {
+                operations.add(ContentProviderOperation.newInsert(Contract.Quote.URI)
+                        .withValues(quoteCV)
+                        .build());
+            }
+            historyLoader.addOperations(operations);
+            for (String unknown : unknownSymbols) {
+                operations.add(ContentProviderOperation
+                        .newDelete(Contract.Watchlist.makeUriForSymbol(unknown))
+                        .build());
+            }
+            // Quotes, history and removals commit together, or not at all.
+            int changed = applyBatch(context, operations);
+            if (changed >= 0) {
+                historyLoader.onCommitted();
+            } else {
+                changed = 0;
+                completed = false;
+            }
+            metrics.addPhase(SyncMetrics.PHASE_PARSE, historyLoader.getParseMillis());
+            metrics.addPhase(SyncMetrics.PHASE_DATABASE, SystemClock.elapsedRealtime()
+                    - databaseStart - historyLoader.getParseMillis());
+
+            Set<String> succeeded = new HashSet<>(quoteCVs.keySet());
+            succeeded.removeAll(failures.keySet());
+            SyncStateUtils.update(context, succeeded, failures);
+
+            if (!unknownSymbols.isEmpty()) {
+                String message = context.getString(R.string.toast_stock_no_exist,
+                        TextUtils.join(", ", unknownSymbols));
+                Timber.e(message);
+                showToast(context, message);
+            } else if (quoteCVs.isEmpty() && (!failures.isEmpty() || !requestFailures.isEmpty())) {
+                completed = false;
+                String message = context.getString(R.string.toast_error_retrieving_data);
+                Timber.e("%s %s %s", message, failures, requestFailures);
+                showToast(context, message);
+            }
+
+            long notifyStart = SystemClock.elapsedRealtime();
+            if (changed > 0) {
+                Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED);
+                context.sendBroadcast(dataUpdatedIntent);
+            }
+            Timber.d("Sync finished, %d rows changed", changed);
+            LocalBroadcastManager.getInstance(context)
+                    .sendBroadcast(new Intent(ACTION_SYNC_FINISHED));
+            metrics.addPhase(SyncMetrics.PHASE_NOTIFY, SystemClock.elapsedRealtime() - notifyStart);
+
+            metrics.setCount(SyncMetrics.COUNT_FAILURES, failures.size() + requestFailures.size());
+            metrics.setCount(SyncMetrics.COUNT_UNKNOWN, unknownSymbols.size());
+            metrics.setCount(SyncMetrics.COUNT_CHANGED, changed);
+            metrics.finish(completed);
+            Timber.d("Sync metrics: %s", metrics);
+            SyncMetricsLog.record(context, metrics);
         }
+        return completed;
     }
 
-    private static void schedulePeriodic(Context context) {
-        Timber.d("Scheduling a periodic task");
-
-
-        JobInfo.Builder builder = new JobInfo.Builder(PERIODIC_ID, new ComponentName(context, QuoteJobService.class));
-
+    /**
+     * Fetches the history of one symbol if it went stale, then writes it.
+     */
+    static void getHistory(Context context, QuoteSource source, String symbol) {
+        if (!HistoryLoader.isStale(context, symbol, System.currentTimeMillis())) {
+            Timber.d("History of '%s' is fresh", symbol);
+            return;
+        }
 
-        builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
-                .setPeriodic(PERIOD)
-                .setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL);
+        HistoryLoader historyLoader = new HistoryLoader(context, source);
+        try {
+            historyLoader.fetch(Collections.singleton(symbol));
+        } catch (InterruptedException e) {
+            Timber.w(e, "History sync of '%s' interrupted", symbol);
+            Thread.currentThread().interrupt();
+        } finally {
+            historyLoader.commit();
+        }
+    }
 
+    /**
+     * Applies the operations as one transaction and returns how many rows they changed, or -1
+     * if none were written. Quote inserts that found their row unchanged don't count.
+     */
+    static int applyBatch(Context context, ArrayList<ContentProviderOperation> operations) {
+        if (operations.isEmpty()) {
+            return 0;
+        }
+        ContentProviderResult[] results;
+        try {
+            results = context.getContentResolver().applyBatch(Contract.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Timber.e(e, "Writing %d operations failed", operations.size());
+            return -1;
+        }
 
-        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        int changed = 0;
+        for (ContentProviderResult result : results) {
+            if (result.count != null) {
+                changed += result.count;
+            } else if (result.uri != null && !Contract.Quote.URI.equals(result.uri)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
 
-        scheduler.schedule(builder.build());
+    private static void showToast(final Context context, final String message) {
+        Handler handler = new Handler(Looper.getMainLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context,message,Toast.LENGTH_LONG).show();
+            }
+        });
     }
 
+    private static QuoteChunkFetcher getQuoteChunkFetcher(Context context, QuoteSource source,
+                                                          String[] symbols) {
+        Resources resources = context.getResources();
+        return new QuoteChunkFetcher(
+                source,
+                symbols,
+                resources.getInteger(R.integer.sync_quote_chunk_size),
+                resources.getInteger(R.integer.sync_quote_chunk_attempts));
+    }
 
     public static synchronized void initialize(final Context context) {
 
-        schedulePeriodic(context);
+        SyncScheduler.scheduleNext(context);
+        MaintenanceJobService.schedule(context);
         syncImmediately(context);
 
     }
 
+    /**
+     * Called when the history of a symbol is about to be shown. Hands the symbol to the
+     * {@link HistoryIntentService}, which counts the view and downloads the history if it is
+     * stale, so none of it touches the database on the calling thread.
+     */
+    public static void syncHistory(Context context, String symbol) {
+        Intent intent = new Intent(context, HistoryIntentService.class);
+        intent.putExtra(HistoryIntentService.EXTRA_SYMBOL, symbol);
+        context.startService(intent);
+    }
+
     public static synchronized void syncImmediately(Context context) {
 
         ConnectivityManager cm =
                 (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo networkInfo = cm.getActiveNetworkInfo();
         if (networkInfo != null && networkInfo.isConnectedOrConnecting()) {
-            Intent nowIntent = new Intent(context, QuoteIntentService.class);
-            context.startService(nowIntent);
+            SyncCoordinator.requestSync(context);
         } else {
 
+            SyncScheduler.markDue(context, ONE_OFF_ID, System.currentTimeMillis());
             JobInfo.Builder builder = new JobInfo.Builder(ONE_OFF_ID, new ComponentName(context, QuoteJobService.class));
 
 
@@ -0,0 +1,107 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Serves quotes and history recorded on disk. The directory holds a {@code quotes.csv} with
+ * {@code symbol,price,change,percent_change} lines and a {@code history/<SYMBOL>.csv} per symbol
+ * with {@code timestamp,open,high,low,close,volume} lines, one per day. Recordings with only
+ * {@code timestamp,close} lines are read too.
+ */
+final class ReplayQuoteSource implements QuoteSource {
+
+    private static final String QUOTES_FILE = "quotes.csv";
+    private static final String HISTORY_DIR = "history";
+    private static final String HISTORY_EXTENSION = ".csv";
+
+    private final File directory;
+    private Map<String, QuoteSnapshot> recordedQuotes;
+
+    ReplayQuoteSource(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public Map<String, QuoteSnapshot> getQuotes(String[] symbols) throws IOException {
+        Map<String, QuoteSnapshot> recorded = getRecordedQuotes();
+        Map<String, QuoteSnapshot> quotes = new LinkedHashMap<>();
+        for (String symbol : symbols) {
+            QuoteSnapshot quote = recorded.get(symbol);
+            quotes.put(symbol, quote != null ? quote : new QuoteSnapshot(symbol, null, null, null));
+        }
+        return quotes;
+    }
+
+    @Override
+    public List<HistoryBar> getHistory(String symbol, Calendar from, Calendar to) throws IOException {
+        List<HistoryBar> bars = new ArrayList<>();
+        File file = new File(new File(directory, HISTORY_DIR), symbol + HISTORY_EXTENSION);
+        if (!file.exists()) {
+            return bars;
+        }
+
+        long start = from.getTimeInMillis();
+        long end = to.getTimeInMillis();
+        try {
+            for (String[] line : read(file)) {
+                long timestamp = Long.parseLong(line[0].trim());
+                if (timestamp < start || timestamp > end) {
+                    continue;
+                }
+                if (line.length < 6) {
+                    bars.add(new HistoryBar(timestamp, new BigDecimal(line[1].trim())));
+                } else {
+                    bars.add(new HistoryBar(timestamp,
+                            new BigDecimal(line[1].trim()),
+                            new BigDecimal(line[2].trim()),
+                            new BigDecimal(line[3].trim()),
+                            new BigDecimal(line[4].trim()),
+                            Long.parseLong(line[5].trim())));
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed replay file " + file, e);
+        }
+        return bars;
+    }
+
+    private synchronized Map<String, QuoteSnapshot> getRecordedQuotes() throws IOException {
+        if (recordedQuotes == null) {
+            File file = new File(directory, QUOTES_FILE);
+            Map<String, QuoteSnapshot> quotes = new HashMap<>();
+            try {
+                for (String[] line : read(file)) {
+                    String symbol = line[0].trim();
+                    quotes.put(symbol, new QuoteSnapshot(symbol,
+                            new BigDecimal(line[1].trim()),
+                            new BigDecimal(line[2].trim()),
+                            new BigDecimal(line[3].trim())));
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Malformed replay file " + file, e);
+            }
+            recordedQuotes = quotes;
+        }
+        return recordedQuotes;
+    }
+
+    private static List<String[]> read(File file) throws IOException {
+        CSVReader reader = new CSVReader(new FileReader(file));
+        try {
+            return reader.readAll();
+        } finally {
+            reader.close();
+        }
+    }
+}
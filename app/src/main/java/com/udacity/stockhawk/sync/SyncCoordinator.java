@@ -0,0 +1,108 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.v4.content.LocalBroadcastManager;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.PrefUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Makes sure only one sync runs at a time. A request made while a sync of the same watchlist is
+ * running joins it, a request for a changed watchlist queues a single follow-up run, and a
+ * request made right after a sync of the same watchlist is answered with the data just fetched.
+ */
+final class SyncCoordinator {
+
+    static final String EXTRA_REQUESTED_AT = "requested_at";
+
+    private static boolean running;
+    private static boolean followUpPending;
+    private static long followUpRequestedAt;
+    private static long lastFinishedAt;
+    private static Set<String> runningStocks = Collections.emptySet();
+    private static Set<String> lastSyncedStocks = Collections.emptySet();
+
+    private SyncCoordinator() {
+    }
+
+    /**
+     * Claims the sync for a caller that runs it itself, like the scheduled job. Returns false if
+     * a sync is already running or has just finished, in which case there is nothing to do.
+     */
+    static synchronized boolean tryBegin(Context context) {
+        Set<String> stocks = new HashSet<>(PrefUtils.getStocks(context));
+        if (running || isFresh(context, stocks)) {
+            return false;
+        }
+        running = true;
+        runningStocks = stocks;
+        return true;
+    }
+
+    static synchronized void requestSync(Context context) {
+        Set<String> stocks = new HashSet<>(PrefUtils.getStocks(context));
+
+        if (running) {
+            if (!stocks.equals(runningStocks)) {
+                Timber.d("Sync running, queueing a follow-up");
+                if (!followUpPending) {
+                    followUpRequestedAt = System.currentTimeMillis();
+                }
+                followUpPending = true;
+            } else {
+                Timber.d("Sync running, joining it");
+            }
+            return;
+        }
+
+        if (isFresh(context, stocks)) {
+            Timber.d("Quotes are fresh, skipping sync");
+            LocalBroadcastManager.getInstance(context)
+                    .sendBroadcast(new Intent(QuoteSyncJob.ACTION_SYNC_FINISHED));
+            return;
+        }
+
+        if (CircuitBreaker.get(context).isOpen()) {
+            Timber.d("Upstream circuit open, skipping sync");
+            LocalBroadcastManager.getInstance(context)
+                    .sendBroadcast(new Intent(QuoteSyncJob.ACTION_SYNC_FINISHED));
+            return;
+        }
+
+        start(context, stocks, System.currentTimeMillis());
+    }
+
+    static synchronized void onSyncFinished(Context context) {
+        running = false;
+        lastFinishedAt = SystemClock.elapsedRealtime();
+        lastSyncedStocks = runningStocks;
+
+        if (followUpPending) {
+            followUpPending = false;
+            start(context, new HashSet<>(PrefUtils.getStocks(context)), followUpRequestedAt);
+        }
+    }
+
+    private static boolean isFresh(Context context, Set<String> stocks) {
+        long freshness = context.getResources().getInteger(R.integer.sync_freshness_millis);
+        return lastFinishedAt != 0
+                && SystemClock.elapsedRealtime() - lastFinishedAt < freshness
+                && stocks.equals(lastSyncedStocks);
+    }
+
+    private static void start(Context context, Set<String> stocks, long requestedAt) {
+        running = true;
+        runningStocks = stocks;
+        Intent nowIntent = new Intent(context, QuoteIntentService.class);
+        nowIntent.putExtra(EXTRA_REQUESTED_AT, requestedAt);
+        context.startService(nowIntent);
+    }
+}
@@ -0,0 +1,210 @@
+package com.udacity.stockhawk.sync;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What one sync run spent its time on: how long it waited to be scheduled, how long every phase
+ * took, how many bytes it downloaded and how many symbols made it through.
+ */
+final class SyncMetrics {
+
+    static final String PHASE_QUOTES = "quote_fetch";
+    static final String PHASE_HISTORY = "history_fetch";
+    static final String PHASE_PARSE = "parse";
+    static final String PHASE_DATABASE = "db_transaction";
+    static final String PHASE_NOTIFY = "notify";
+
+    static final String COUNT_SYMBOLS = "symbols";
+    static final String COUNT_BACKING_OFF = "backing_off";
+    static final String COUNT_QUOTES = "quotes";
+    static final String COUNT_HISTORIES = "histories";
+    static final String COUNT_FAILURES = "failures";
+    static final String COUNT_UNKNOWN = "unknown";
+    static final String COUNT_CHANGED = "rows_changed";
+
+    // Only the slowest history requests are kept by symbol, the rest go into the percentiles.
+    private static final int SLOWEST_HISTORIES = 10;
+
+    private static final String KEY_STARTED_AT = "started_at";
+    private static final String KEY_TRIGGER = "trigger";
+    private static final String KEY_SCHEDULE_DELAY = "schedule_delay";
+    private static final String KEY_TOTAL = "total";
+    private static final String KEY_BYTES = "bytes_received";
+    private static final String KEY_COMPLETED = "completed";
+    private static final String KEY_PHASES = "phases";
+    private static final String KEY_COUNTS = "counts";
+    private static final String KEY_HISTORY_P50 = "history_p50";
+    private static final String KEY_HISTORY_P90 = "history_p90";
+    private static final String KEY_HISTORY_MAX = "history_max";
+    private static final String KEY_SLOWEST = "slowest_histories";
+
+    private long startedAt;
+    private String trigger;
+    private long scheduleDelay = -1;
+    private long total;
+    private long bytesReceived;
+    private boolean completed;
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<String, Integer> counts = new LinkedHashMap<>();
+    private final Map<String, Long> slowestHistories = new LinkedHashMap<>();
+    private long historyP50;
+    private long historyP90;
+    private long historyMax;
+
+    private long startedElapsed;
+    private long startBytes;
+
+    private SyncMetrics() {
+    }
+
+    /**
+     * Starts measuring a run. dueAt is the wall clock time the run was asked for, or 0 when it
+     * isn't known.
+     */
+    static SyncMetrics start(String trigger, long dueAt) {
+        SyncMetrics metrics = new SyncMetrics();
+        metrics.trigger = trigger;
+        metrics.startedAt = System.currentTimeMillis();
+        metrics.startedElapsed = SystemClock.elapsedRealtime();
+        metrics.startBytes = QuoteHttpClient.getBytesReceived();
+        if (dueAt > 0) {
+            metrics.scheduleDelay = Math.max(0, metrics.startedAt - dueAt);
+        }
+        return metrics;
+    }
+
+    void addPhase(String phase, long millis) {
+        Long previous = phases.get(phase);
+        phases.put(phase, previous == null ? millis : previous + millis);
+    }
+
+    void setCount(String counter, int value) {
+        counts.put(counter, value);
+    }
+
+    void setHistoryDurations(Map<String, Long> durations) {
+        if (durations.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(durations.entrySet());
+        Collections.sort(sorted, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        int size = sorted.size();
+        historyMax = sorted.get(0).getValue();
+        historyP90 = sorted.get(size / 10).getValue();
+        historyP50 = sorted.get(size / 2).getValue();
+        for (int i = 0; i < Math.min(SLOWEST_HISTORIES, size); i++) {
+            slowestHistories.put(sorted.get(i).getKey(), sorted.get(i).getValue());
+        }
+    }
+
+    void finish(boolean completed) {
+        this.completed = completed;
+        total = SystemClock.elapsedRealtime() - startedElapsed;
+        bytesReceived = QuoteHttpClient.getBytesReceived() - startBytes;
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(KEY_STARTED_AT, startedAt);
+        json.put(KEY_TRIGGER, trigger);
+        json.put(KEY_SCHEDULE_DELAY, scheduleDelay);
+        json.put(KEY_TOTAL, total);
+        json.put(KEY_BYTES, bytesReceived);
+        json.put(KEY_COMPLETED, completed);
+        json.put(KEY_PHASES, new JSONObject(phases));
+        json.put(KEY_COUNTS, new JSONObject(counts));
+        json.put(KEY_HISTORY_P50, historyP50);
+        json.put(KEY_HISTORY_P90, historyP90);
+        json.put(KEY_HISTORY_MAX, historyMax);
+        json.put(KEY_SLOWEST, new JSONObject(slowestHistories));
+        return json;
+    }
+
+    static SyncMetrics fromJson(JSONObject json) throws JSONException {
+        SyncMetrics metrics = new SyncMetrics();
+        metrics.startedAt = json.getLong(KEY_STARTED_AT);
+        metrics.trigger = json.getString(KEY_TRIGGER);
+        metrics.scheduleDelay = json.getLong(KEY_SCHEDULE_DELAY);
+        metrics.total = json.getLong(KEY_TOTAL);
+        metrics.bytesReceived = json.getLong(KEY_BYTES);
+        metrics.completed = json.getBoolean(KEY_COMPLETED);
+        metrics.historyP50 = json.optLong(KEY_HISTORY_P50);
+        metrics.historyP90 = json.optLong(KEY_HISTORY_P90);
+        metrics.historyMax = json.optLong(KEY_HISTORY_MAX);
+        readLongs(json.getJSONObject(KEY_PHASES), metrics.phases);
+        readLongs(json.optJSONObject(KEY_SLOWEST), metrics.slowestHistories);
+        Map<String, Long> counts = new LinkedHashMap<>();
+        readLongs(json.getJSONObject(KEY_COUNTS), counts);
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            metrics.counts.put(count.getKey(), count.getValue().intValue());
+        }
+        return metrics;
+    }
+
+    /**
+     * A few readable lines for the debug screen.
+     */
+    String describe() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date(startedAt)))
+                .append("  ").append(trigger)
+                .append(completed ? "" : "  INCOMPLETE")
+                .append('\n');
+        builder.append("  total ").append(total).append(" ms, delay ")
+                .append(scheduleDelay < 0 ? "?" : String.valueOf(scheduleDelay)).append(" ms, ")
+                .append(bytesReceived / 1024).append(" KB\n");
+        builder.append("  phases");
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            builder.append(' ').append(phase.getKey()).append('=').append(phase.getValue());
+        }
+        builder.append("\n  counts");
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            builder.append(' ').append(count.getKey()).append('=').append(count.getValue());
+        }
+        if (historyMax > 0) {
+            builder.append("\n  history p50=").append(historyP50)
+                    .append(" p90=").append(historyP90)
+                    .append(" max=").append(historyMax);
+            builder.append("\n  slowest");
+            for (Map.Entry<String, Long> history : slowestHistories.entrySet()) {
+                builder.append(' ').append(history.getKey()).append('=').append(history.getValue());
+            }
+        }
+        return builder.append('\n').toString();
+    }
+
+    @Override
+    public String toString() {
+        return describe();
+    }
+
+    private static void readLongs(JSONObject json, Map<String, Long> into) throws JSONException {
+        if (json == null) {
+            return;
+        }
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            into.put(key, json.getLong(key));
+        }
+    }
+}
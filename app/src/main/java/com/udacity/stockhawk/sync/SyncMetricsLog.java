@@ -0,0 +1,130 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.util.AtomicFile;
+
+import com.udacity.stockhawk.R;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Keeps the metrics of the last sync runs in a ring buffer that survives the process, one JSON
+ * object per line, oldest first.
+ */
+public final class SyncMetricsLog {
+
+    private static final String FILE_NAME = "sync_metrics.jsonl";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static Deque<JSONObject> runs;
+
+    private SyncMetricsLog() {
+    }
+
+    static synchronized void record(Context context, SyncMetrics metrics) {
+        Deque<JSONObject> runs = load(context);
+        try {
+            runs.addLast(metrics.toJson());
+        } catch (JSONException e) {
+            Timber.w(e, "Sync metrics can't be serialized");
+            return;
+        }
+        int capacity = context.getResources().getInteger(R.integer.sync_metrics_runs);
+        while (runs.size() > capacity) {
+            runs.removeFirst();
+        }
+        save(context, runs);
+    }
+
+    /**
+     * Readable runs, newest first.
+     */
+    public static synchronized String describe(Context context) {
+        StringBuilder builder = new StringBuilder();
+        Iterator<JSONObject> newestFirst = load(context).descendingIterator();
+        while (newestFirst.hasNext()) {
+            try {
+                builder.append(SyncMetrics.fromJson(newestFirst.next()).describe()).append('\n');
+            } catch (JSONException e) {
+                Timber.w(e, "Skipping unreadable sync metrics");
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * All runs as a JSON array, for exporting.
+     */
+    public static synchronized String dump(Context context) {
+        List<JSONObject> copy = new ArrayList<>(load(context));
+        try {
+            return new JSONArray(copy).toString(2);
+        } catch (JSONException e) {
+            return new JSONArray(copy).toString();
+        }
+    }
+
+    public static synchronized void clear(Context context) {
+        load(context).clear();
+        getFile(context).delete();
+    }
+
+    private static Deque<JSONObject> load(Context context) {
+        if (runs != null) {
+            return runs;
+        }
+        runs = new ArrayDeque<>();
+        AtomicFile file = getFile(context);
+        try {
+            String[] lines = new String(file.readFully(), UTF_8).split("\n");
+            for (String line : lines) {
+                if (!line.isEmpty()) {
+                    runs.addLast(new JSONObject(line));
+                }
+            }
+        } catch (FileNotFoundException e) {
+            Timber.d("No sync metrics recorded yet");
+        } catch (IOException | JSONException e) {
+            Timber.w(e, "Sync metrics can't be read, starting over");
+            runs.clear();
+        }
+        return runs;
+    }
+
+    private static void save(Context context, Deque<JSONObject> runs) {
+        StringBuilder builder = new StringBuilder();
+        for (JSONObject run : runs) {
+            builder.append(run.toString()).append('\n');
+        }
+
+        AtomicFile file = getFile(context);
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(builder.toString().getBytes(UTF_8));
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Timber.w(e, "Sync metrics can't be saved");
+            file.failWrite(out);
+        }
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+}
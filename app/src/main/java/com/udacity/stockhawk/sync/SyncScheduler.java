@@ -0,0 +1,142 @@
+package com.udacity.stockhawk.sync;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.database.Cursor;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.PrefUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Schedules the next background sync from the trading hours of the watched symbols. While any
+ * of their exchanges is open the sync runs every session period, shortened when prices have been
+ * moving a lot; once they're all closed the next sync waits for the next open.
+ */
+final class SyncScheduler {
+
+    private static final int PERIODIC_ID = 1;
+    private static final int INITIAL_BACKOFF = 10000;
+    // Average absolute daily change, in percent, above which the session period is cut.
+    private static final float HIGH_VOLATILITY = 3f;
+    private static final float MEDIUM_VOLATILITY = 1.5f;
+    // Room the system gets to batch the job with others.
+    private static final float DEADLINE_FLEX = 0.25f;
+    private static final String PREFS_NAME = "sync_schedule";
+    private static final String KEY_DUE_AT = "due_at_";
+
+    private SyncScheduler() {
+    }
+
+    static void scheduleNext(Context context) {
+        long now = System.currentTimeMillis();
+        long delay = getNextDelay(context, now);
+        long retryAt = CircuitBreaker.get(context).getRetryAt();
+        if (retryAt > now) {
+            delay = Math.max(delay, retryAt - now);
+        }
+        Timber.d("Scheduling the next sync in %d ms", delay);
+
+        JobInfo.Builder builder = new JobInfo.Builder(PERIODIC_ID, new ComponentName(context, QuoteJobService.class));
+
+        builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(delay)
+                .setOverrideDeadline(delay + (long) (delay * DEADLINE_FLEX))
+                .setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL);
+
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+
+        scheduler.schedule(builder.build());
+        markDue(context, PERIODIC_ID, now + delay);
+    }
+
+    /**
+     * Remembers when a job was meant to run, so the sync can tell how late it started. Kept in
+     * preferences because the process is usually gone by the time the job runs.
+     */
+    static void markDue(Context context, int jobId, long dueAt) {
+        getPrefs(context).edit().putLong(KEY_DUE_AT + jobId, dueAt).apply();
+    }
+
+    static long getDueAt(Context context, int jobId) {
+        return getPrefs(context).getLong(KEY_DUE_AT + jobId, 0);
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static long getNextDelay(Context context, long now) {
+        Resources resources = context.getResources();
+        long sessionPeriod = resources.getInteger(R.integer.sync_session_period_millis);
+        long minPeriod = resources.getInteger(R.integer.sync_min_period_millis);
+        long maxClosedDelay = resources.getInteger(R.integer.sync_closed_max_delay_millis);
+
+        Set<MarketCalendar.Exchange> exchanges = new HashSet<>();
+        for (String symbol : PrefUtils.getStocks(context)) {
+            exchanges.add(MarketCalendar.forSymbol(symbol));
+        }
+        if (exchanges.isEmpty()) {
+            return maxClosedDelay;
+        }
+
+        long untilClose = Long.MAX_VALUE;
+        long untilOpen = Long.MAX_VALUE;
+        for (MarketCalendar.Exchange exchange : exchanges) {
+            if (exchange.isOpen(now)) {
+                untilClose = Math.min(untilClose, exchange.closeOf(now) - now);
+            } else {
+                untilOpen = Math.min(untilOpen, exchange.nextOpen(now) - now);
+            }
+        }
+
+        if (untilClose == Long.MAX_VALUE) {
+            // Everything is closed, the quotes won't move before the next open.
+            return Math.max(minPeriod, Math.min(untilOpen + minPeriod, maxClosedDelay));
+        }
+
+        float volatility = getVolatility(context);
+        long period = sessionPeriod;
+        if (volatility >= HIGH_VOLATILITY) {
+            period = sessionPeriod / 3;
+        } else if (volatility >= MEDIUM_VOLATILITY) {
+            period = sessionPeriod / 2;
+        }
+        // Land one sync right after the close so the closing prices are picked up.
+        period = Math.min(period, untilClose + minPeriod);
+        return Math.max(minPeriod, period);
+    }
+
+    private static float getVolatility(Context context) {
+        // Only watched symbols, quotes of removed ones may linger until the next compaction.
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Quote.SUMMARY_URI,
+                new String[]{Contract.Quote.COLUMN_PERCENTAGE_CHANGE},
+                null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            if (cursor.getCount() == 0) {
+                return 0;
+            }
+            int changeIndex = cursor.getColumnIndexOrThrow(Contract.Quote.COLUMN_PERCENTAGE_CHANGE);
+            float total = 0;
+            while (cursor.moveToNext()) {
+                total += Math.abs(cursor.getFloat(changeIndex));
+            }
+            return total / cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
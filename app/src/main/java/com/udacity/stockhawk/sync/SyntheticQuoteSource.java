@@ -0,0 +1,106 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes up prices for any symbol it is asked about, after a fixed latency and failing a given
+ * share of the requests. Prices only depend on the seed, the symbol and the day, so the same
+ * run can be repeated and incremental history lines up with what was stored before. Weekends
+ * have no bars.
+ */
+final class SyntheticQuoteSource implements QuoteSource {
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    // Day 0 of the epoch was a Thursday.
+    private static final int EPOCH_WEEKDAY = 3;
+
+    private final long seed;
+    private final long latencyMillis;
+    private final double errorRate;
+    private final Random errors;
+
+    SyntheticQuoteSource(long seed, long latencyMillis, double errorRate) {
+        this.seed = seed;
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.errors = new Random(seed);
+    }
+
+    static String[] symbols(int count) {
+        String[] symbols = new String[count];
+        for (int i = 0; i < count; i++) {
+            symbols[i] = String.format(Locale.US, "SYN%04d", i);
+        }
+        return symbols;
+    }
+
+    @Override
+    public Map<String, QuoteSnapshot> getQuotes(String[] symbols) throws IOException {
+        simulateRequest();
+        long day = System.currentTimeMillis() / DAY_MILLIS;
+        Map<String, QuoteSnapshot> quotes = new LinkedHashMap<>();
+        for (String symbol : symbols) {
+            BigDecimal price = priceAt(symbol, day);
+            BigDecimal change = price.subtract(priceAt(symbol, day - 1));
+            BigDecimal changeInPercent = change.multiply(BigDecimal.valueOf(100))
+                    .divide(price, 2, RoundingMode.HALF_UP);
+            quotes.put(symbol, new QuoteSnapshot(symbol, price, change, changeInPercent));
+        }
+        return quotes;
+    }
+
+    @Override
+    public List<HistoryBar> getHistory(String symbol, Calendar from, Calendar to) throws IOException {
+        simulateRequest();
+        List<HistoryBar> bars = new ArrayList<>();
+        long lastDay = to.getTimeInMillis() / DAY_MILLIS;
+        for (long day = from.getTimeInMillis() / DAY_MILLIS; day <= lastDay; day++) {
+            if ((day + EPOCH_WEEKDAY) % 7 >= 5) {
+                continue;
+            }
+            BigDecimal open = priceAt(symbol, day - 1);
+            BigDecimal close = priceAt(symbol, day);
+            BigDecimal spread = open.max(close).multiply(BigDecimal.valueOf(0.01));
+            long volume = 100000 + (new Random(seed ^ symbol.hashCode() ^ day).nextInt(900000));
+            bars.add(new HistoryBar(day * DAY_MILLIS, open,
+                    open.max(close).add(spread).setScale(2, RoundingMode.HALF_UP),
+                    open.min(close).subtract(spread).setScale(2, RoundingMode.HALF_UP),
+                    close, volume));
+        }
+        return bars;
+    }
+
+    private BigDecimal priceAt(String symbol, long day) {
+        Random random = new Random(seed ^ symbol.hashCode());
+        double base = 10 + random.nextInt(490);
+        double phase = random.nextDouble() * Math.PI;
+        double noise = new Random(seed ^ symbol.hashCode() ^ day).nextGaussian() * 0.01;
+        double price = base * (1 + 0.2 * Math.sin(day / 40.0 + phase) + noise);
+        return BigDecimal.valueOf(price).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    private void simulateRequest() throws IOException {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while simulating latency");
+            }
+        }
+        if (errors.nextDouble() < errorRate) {
+            throw new IOException("Simulated failure");
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.udacity.stockhawk.data.Contract;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Keeps only the latest tick of every symbol and writes them all in one go, at most once per
+ * flush interval, so a burst of ticks costs one write and one list reload.
+ */
+final class TickCoalescer {
+
+    private final ContentResolver resolver;
+    private final Handler handler;
+    private final long flushIntervalMillis;
+    private final Map<String, ContentValues> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    private long lastFlushAt;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            ContentValues[] ticks;
+            synchronized (TickCoalescer.this) {
+                ticks = pending.values().toArray(new ContentValues[pending.size()]);
+                pending.clear();
+                flushScheduled = false;
+                lastFlushAt = SystemClock.uptimeMillis();
+            }
+            if (ticks.length > 0) {
+                int updated = resolver.bulkInsert(Contract.Tick.URI, ticks);
+                Timber.d("Flushed %d ticks, %d rows updated", ticks.length, updated);
+            }
+        }
+    };
+
+    TickCoalescer(ContentResolver resolver, Handler handler, long flushIntervalMillis) {
+        this.resolver = resolver;
+        this.handler = handler;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    synchronized void offer(String symbol, float price, float change, float percentChange) {
+        ContentValues tick = new ContentValues();
+        tick.put(Contract.Quote.COLUMN_SYMBOL, symbol);
+        tick.put(Contract.Quote.COLUMN_PRICE, price);
+        tick.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, change);
+        tick.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, percentChange);
+        pending.put(symbol, tick);
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postAtTime(flush, Math.max(SystemClock.uptimeMillis(), lastFlushAt + flushIntervalMillis));
+        }
+    }
+
+    /**
+     * Writes whatever is pending right away.
+     */
+    void flushNow() {
+        handler.removeCallbacks(flush);
+        handler.post(flush);
+    }
+}
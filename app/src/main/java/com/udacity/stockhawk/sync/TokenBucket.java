@@ -0,0 +1,44 @@
+package com.udacity.stockhawk.sync;
+
+import android.os.SystemClock;
+
+/**
+ * Lets requests through at a steady rate, with short bursts of up to capacity requests after a
+ * quiet period. Callers over the rate wait for their token instead of failing.
+ */
+final class TokenBucket {
+
+    private final int capacity;
+    private final double tokensPerMilli;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(int capacity, double tokensPerSecond) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerMilli = tokensPerSecond / 1000;
+        this.tokens = this.capacity;
+        this.refilledAt = SystemClock.elapsedRealtime();
+    }
+
+    void acquire() throws InterruptedException {
+        while (true) {
+            long wait;
+            synchronized (this) {
+                refill();
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                wait = (long) Math.ceil((1 - tokens) / tokensPerMilli);
+            }
+            // Sleep outside the lock so an interrupted caller doesn't hold up the others.
+            Thread.sleep(Math.max(1, wait));
+        }
+    }
+
+    private void refill() {
+        long now = SystemClock.elapsedRealtime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerMilli);
+        refilledAt = now;
+    }
+}
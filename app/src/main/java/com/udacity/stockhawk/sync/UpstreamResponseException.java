@@ -0,0 +1,27 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.IOException;
+
+/**
+ * The upstream answered, but not with what was asked for.
+ */
+final class UpstreamResponseException extends IOException {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVER_ERROR = 500;
+
+    final int code;
+
+    UpstreamResponseException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    /**
+     * True if the upstream is throttling us or failing itself, rather than refusing this one
+     * request, as it does for an unknown symbol.
+     */
+    boolean isUpstreamFault() {
+        return code == TOO_MANY_REQUESTS || code >= SERVER_ERROR;
+    }
+}
@@ -0,0 +1,119 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.com.bytecode.opencsv.CSVReader;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import yahoofinance.Utils;
+import yahoofinance.YahooFinance;
+import yahoofinance.histquotes.Interval;
+
+/**
+ * Asks Yahoo's CSV endpoints for quotes and daily history. The requests go out on the shared
+ * {@link QuoteHttpClient} rather than through the Yahoo library, which would open its own
+ * connections; the library is only used for its URLs and field parsing.
+ */
+final class YahooQuoteSource implements QuoteSource {
+
+    // Symbol, last trade price, change, change in percent.
+    private static final String QUOTE_FIELDS = "sl1c1p2";
+
+    private final OkHttpClient client;
+
+    YahooQuoteSource(OkHttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public Map<String, QuoteSnapshot> getQuotes(String[] symbols) throws IOException {
+        HttpUrl url = HttpUrl.parse(YahooFinance.QUOTES_BASE_URL).newBuilder()
+                .addQueryParameter("s", Utils.join(symbols, ","))
+                .addQueryParameter("f", QUOTE_FIELDS)
+                .addQueryParameter("e", ".csv")
+                .build();
+
+        Map<String, QuoteSnapshot> quotes = new LinkedHashMap<>();
+        for (String[] line : fetch(url)) {
+            if (line.length < 4) {
+                continue;
+            }
+            String symbol = line[0].trim();
+            quotes.put(symbol, new QuoteSnapshot(symbol,
+                    Utils.getBigDecimal(line[1]),
+                    Utils.getBigDecimal(line[2]),
+                    Utils.getBigDecimal(line[3].replace("%", ""))));
+        }
+        // Whatever Yahoo left out still comes back, with null prices.
+        for (String symbol : symbols) {
+            if (!quotes.containsKey(symbol)) {
+                quotes.put(symbol, new QuoteSnapshot(symbol, null, null, null));
+            }
+        }
+        return quotes;
+    }
+
+    @Override
+    public List<HistoryBar> getHistory(String symbol, Calendar from, Calendar to) throws IOException {
+        HttpUrl url = HttpUrl.parse(YahooFinance.HISTQUOTES_BASE_URL).newBuilder()
+                .addQueryParameter("s", symbol)
+                .addQueryParameter("a", String.valueOf(from.get(Calendar.MONTH)))
+                .addQueryParameter("b", String.valueOf(from.get(Calendar.DAY_OF_MONTH)))
+                .addQueryParameter("c", String.valueOf(from.get(Calendar.YEAR)))
+                .addQueryParameter("d", String.valueOf(to.get(Calendar.MONTH)))
+                .addQueryParameter("e", String.valueOf(to.get(Calendar.DAY_OF_MONTH)))
+                .addQueryParameter("f", String.valueOf(to.get(Calendar.YEAR)))
+                .addQueryParameter("g", Interval.DAILY.getTag())
+                .addQueryParameter("ignore", ".csv")
+                .build();
+
+        List<String[]> lines = fetch(url);
+        List<HistoryBar> bars = new ArrayList<>(lines.size());
+        // Date,Open,High,Low,Close,Volume,Adj Close, after a header line.
+        for (int i = 1; i < lines.size(); i++) {
+            String[] line = lines.get(i);
+            if (line.length < 6) {
+                continue;
+            }
+            Calendar date = Utils.parseHistDate(line[0]);
+            BigDecimal close = Utils.getBigDecimal(line[4]);
+            if (date == null || close == null) {
+                continue;
+            }
+            BigDecimal open = Utils.getBigDecimal(line[1]);
+            BigDecimal high = Utils.getBigDecimal(line[2]);
+            BigDecimal low = Utils.getBigDecimal(line[3]);
+            Long volume = Utils.getLong(line[5]);
+            bars.add(new HistoryBar(
+                    date.getTimeInMillis(),
+                    open != null ? open : close,
+                    high != null ? high : close,
+                    low != null ? low : close,
+                    close,
+                    volume != null ? volume : 0));
+        }
+        return bars;
+    }
+
+    private List<String[]> fetch(HttpUrl url) throws IOException {
+        Response response = client.newCall(new Request.Builder().url(url).build()).execute();
+        try {
+            if (!response.isSuccessful()) {
+                throw new UpstreamResponseException(response.code(),
+                        "Yahoo answered " + response.code() + " for " + url);
+            }
+            CSVReader reader = new CSVReader(response.body().charStream());
+            return reader.readAll();
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -5,19 +5,31 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
-import android.content.DialogInterface;
+import android.content.Context;
+import android.database.Cursor;
 import android.os.Bundle;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
-import android.widget.EditText;
+import android.widget.AutoCompleteTextView;
+import android.widget.Button;
+import android.widget.Filter;
+import android.widget.FilterQueryProvider;
+import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.Contract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -25,9 +37,17 @@ import butterknife.ButterKnife;
 
 public class AddStockDialog extends DialogFragment {
 
+    // Shown when a typed symbol isn't in the directory.
+    private static final int CORRECTION_COUNT = 3;
+
     @SuppressWarnings("WeakerAccess")
     @BindView(R.id.dialog_stock)
-    EditText stock;
+    AutoCompleteTextView stock;
+
+    private SimpleCursorAdapter suggestions;
+    private Button addButton;
+    // Typed, looked up and found to have corrections, added if the user asks again.
+    private String unconfirmedSymbol;
 
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState) {
@@ -39,6 +59,29 @@ public class AddStockDialog extends DialogFragment {
 
         ButterKnife.bind(this, custom);
 
+        suggestions = createSuggestionAdapter(getActivity());
+        stock.setAdapter(suggestions);
+
+        stock.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (unconfirmedSymbol != null && !unconfirmedSymbol.equals(getSymbol())) {
+                    unconfirmedSymbol = null;
+                    stock.setError(null);
+                    if (addButton != null) {
+                        addButton.setText(R.string.dialog_add);
+                    }
+                }
+            }
+        });
         stock.setOnEditorActionListener(new TextView.OnEditorActionListener() {
             @Override
             public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
@@ -49,12 +92,8 @@ public class AddStockDialog extends DialogFragment {
         builder.setView(custom);
 
         builder.setMessage(getString(R.string.dialog_title));
-        builder.setPositiveButton(getString(R.string.dialog_add),
-                new DialogInterface.OnClickListener() {
-                    public void onClick(DialogInterface dialog, int id) {
-                        addStock();
-                    }
-                });
+        // Set up in onStart, a button set here would close the dialog before the lookup.
+        builder.setPositiveButton(getString(R.string.dialog_add), null);
         builder.setNegativeButton(getString(R.string.dialog_cancel), null);
 
         Dialog dialog = builder.create();
@@ -67,21 +106,143 @@ public class AddStockDialog extends DialogFragment {
         return dialog;
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        AlertDialog dialog = (AlertDialog) getDialog();
+        if (dialog == null) {
+            return;
+        }
+        addButton = dialog.getButton(AlertDialog.BUTTON_POSITIVE);
+        addButton.setText(unconfirmedSymbol != null ? R.string.dialog_add_anyway : R.string.dialog_add);
+        addButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                addStock();
+            }
+        });
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (suggestions != null) {
+            suggestions.changeCursor(null);
+        }
+    }
+
+    /**
+     * Suggests symbols from the directory as the user types, queried on the filter thread.
+     */
+    private static SimpleCursorAdapter createSuggestionAdapter(final Context context) {
+        final int count = context.getResources().getInteger(R.integer.symbol_suggestion_count);
+        SimpleCursorAdapter adapter = new SimpleCursorAdapter(
+                context,
+                android.R.layout.simple_list_item_2,
+                null,
+                new String[]{Contract.Symbol.COLUMN_SYMBOL, Contract.Symbol.COLUMN_NAME},
+                new int[]{android.R.id.text1, android.R.id.text2},
+                0);
+        adapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                if (TextUtils.isEmpty(constraint)) {
+                    return null;
+                }
+                return context.getContentResolver().query(
+                        Contract.Symbol.makeUriForSearch(constraint.toString(), count),
+                        Contract.Symbol.COLUMNS.toArray(new String[]{}),
+                        null, null, null);
+            }
+        });
+        adapter.setCursorToStringConverter(new SimpleCursorAdapter.CursorToStringConverter() {
+            @Override
+            public CharSequence convertToString(Cursor cursor) {
+                return cursor.getString(cursor.getColumnIndex(Contract.Symbol.COLUMN_SYMBOL));
+            }
+        });
+        return adapter;
+    }
+
     private void addStock() {
-        if(TextUtils.isEmpty(stock.getText())) {
+        final String symbol = getSymbol();
+        if(TextUtils.isEmpty(symbol)) {
             Toast.makeText(
                             stock.getContext()
                             ,getString(R.string.message_stock_empty)
                             ,Toast.LENGTH_LONG)
                     .show();
+            return;
+        }
+
+        // The user saw the corrections and still wants this one, the sync decides if it exists.
+        if (symbol.equals(unconfirmedSymbol)) {
+            addStock(symbol);
+            return;
         }
-        else {
-            Activity parent = getActivity();
-            if (parent instanceof MainActivity) {
-                ((MainActivity) parent).addStock(stock.getText().toString());
+
+        // Looked up on the filter thread, the result also fills the suggestions.
+        suggestions.getFilter().filter(symbol, new Filter.FilterListener() {
+            @Override
+            public void onFilterComplete(int count) {
+                if (isAdded() && symbol.equals(getSymbol())) {
+                    onLookedUp(symbol);
+                }
+            }
+        });
+    }
+
+    /**
+     * A symbol the directory doesn't know but has close matches for is most likely a typo, so
+     * the matches are offered first and the symbol is only added if asked again. One with no
+     * match at all may just be missing from the directory and is added right away.
+     */
+    private void onLookedUp(String symbol) {
+        List<String> corrections = getCorrections(symbol, suggestions.getCursor());
+        if (corrections.isEmpty()) {
+            addStock(symbol);
+            return;
+        }
+        unconfirmedSymbol = symbol;
+        stock.setError(getString(R.string.message_stock_unknown, symbol,
+                TextUtils.join(", ", corrections)));
+        stock.showDropDown();
+        if (addButton != null) {
+            addButton.setText(R.string.dialog_add_anyway);
+        }
+    }
+
+    private void addStock(String symbol) {
+        Activity parent = getActivity();
+        if (parent instanceof MainActivity) {
+            ((MainActivity) parent).addStock(symbol);
+        }
+        dismissAllowingStateLoss();
+    }
+
+    private String getSymbol() {
+        return stock.getText().toString().trim().toUpperCase(Locale.US);
+    }
+
+    /**
+     * Nothing if the symbol is among the search results, otherwise the first few of them.
+     */
+    private static List<String> getCorrections(String symbol, Cursor results) {
+        List<String> corrections = new ArrayList<>();
+        if (results == null) {
+            return corrections;
+        }
+        int symbolIndex = results.getColumnIndexOrThrow(Contract.Symbol.COLUMN_SYMBOL);
+        for (int i = 0; results.moveToPosition(i); i++) {
+            String result = results.getString(symbolIndex);
+            if (symbol.equalsIgnoreCase(result)) {
+                return new ArrayList<>();
+            }
+            if (corrections.size() < CORRECTION_COUNT) {
+                corrections.add(result);
             }
-            dismissAllowingStateLoss();
         }
+        return corrections;
     }
 
 
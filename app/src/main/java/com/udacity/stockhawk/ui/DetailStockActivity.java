@@ -8,7 +8,7 @@ import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
-import android.text.TextUtils;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.TextView;
@@ -23,19 +23,16 @@ import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.formatter.IAxisValueFormatter;
 import com.udacity.stockhawk.R;
 import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.sync.QuoteSyncJob;
 import com.udacity.stockhawk.widget.StockHawkWidgetProvider;
 
-import java.io.IOException;
-import java.io.StringReader;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
 
-import au.com.bytecode.opencsv.CSVReader;
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import timber.log.Timber;
@@ -50,6 +47,26 @@ public class DetailStockActivity extends AppCompatActivity implements LoaderMana
     private String mSymbol;
     private String mOrigin;
     private static final int STOCK_LOADER = 0;
+    private static final String STATE_RANGE = "range";
+    private static final int[] RANGE_ITEMS = {
+            R.id.range_one_month,
+            R.id.range_three_months,
+            R.id.range_one_year,
+            R.id.range_five_years,
+            R.id.range_ten_years
+    };
+    private static final int[] RANGE_MONTHS = {1, 3, 12, 60, 120};
+    // Every range reads the coarsest resolution that still gives it enough points, so long
+    // ranges never load daily bars.
+    private static final int[] RANGE_RESOLUTIONS = {
+            Contract.History.RESOLUTION_DAILY,
+            Contract.History.RESOLUTION_DAILY,
+            Contract.History.RESOLUTION_DAILY,
+            Contract.History.RESOLUTION_WEEKLY,
+            Contract.History.RESOLUTION_MONTHLY
+    };
+    private static final int DEFAULT_RANGE = 2;
+    private int mRange = DEFAULT_RANGE;
     private static final SimpleDateFormat SIMPLE_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
 
     @Override
@@ -61,14 +78,35 @@ public class DetailStockActivity extends AppCompatActivity implements LoaderMana
 
         mSymbol = getIntent().getStringExtra(getString(R.string.intent_stock_selected));
         mOrigin = getIntent().getStringExtra(getString(R.string.intent_origin));
+        if (savedInstanceState == null) {
+            QuoteSyncJob.syncHistory(this, mSymbol);
+        } else {
+            mRange = savedInstanceState.getInt(STATE_RANGE, DEFAULT_RANGE);
+        }
         getSupportLoaderManager().initLoader(STOCK_LOADER, null, this);
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_RANGE, mRange);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.detail_stock_range, menu);
+        menu.findItem(RANGE_ITEMS[mRange]).setChecked(true);
+        return true;
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        Calendar rangeStart = Calendar.getInstance();
+        rangeStart.add(Calendar.MONTH, -RANGE_MONTHS[mRange]);
         return new CursorLoader(this,
-                Contract.Quote.makeUriForStock(mSymbol),
-                null,
+                Contract.History.makeUriForHistory(mSymbol, RANGE_RESOLUTIONS[mRange],
+                        rangeStart.getTimeInMillis(), Long.MAX_VALUE),
+                new String[]{Contract.History.COLUMN_TIMESTAMP, Contract.History.COLUMN_CLOSE},
                 null,
                 null,
                 null);
@@ -77,74 +115,53 @@ public class DetailStockActivity extends AppCompatActivity implements LoaderMana
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         if(data.getCount() != 0){
-            try {
-                data.moveToFirst();
-                String historicalPrices = data.getString(data.getColumnIndex(Contract.Quote.COLUMN_HISTORY));
-                if(TextUtils.isEmpty(historicalPrices)){
-                    showError();
-                    return;
-                }
+            List<Entry> entries = new ArrayList<>();
 
-                CSVReader reader = new CSVReader(new StringReader(historicalPrices));
-                List<Entry> entries = new ArrayList<>();
+            final List<String> formattedStockTs = new ArrayList<>();
 
-                final List<String> formattedStockTs = new ArrayList<>();
+            int timestampIndex = data.getColumnIndex(Contract.History.COLUMN_TIMESTAMP);
+            int closeIndex = data.getColumnIndex(Contract.History.COLUMN_CLOSE);
+            data.moveToPosition(-1);
+            while (data.moveToNext()) {
+                long timestamp = data.getLong(timestampIndex);
+                float stock = data.getFloat(closeIndex);
+                int i = entries.size();
 
-                List<String[]> lines = reader.readAll();
-                Collections.sort(lines, new Comparator<String[]>() {
-                    @Override
-                    public int compare(String[] o1, String[] o2) {
-                        Long timestamp1 = Long.parseLong(o1[0]);
-                        Long timestamp2 = Long.parseLong(o2[0]);
-                        return timestamp1.compareTo(timestamp2);
-                    }
-                });
+                entries.add(new Entry(i, stock));
 
-                for (int i = 0; i < lines.size();i++) {
-                    String[] line = lines.get(i);
-                    long timestamp = Long.parseLong(line[0]);
-                    float stock = Float.parseFloat(line[1]);
+                formattedStockTs.add(SIMPLE_DATE_FORMAT.format(new Date(timestamp)));
+                Timber.d("[count, timestamp, stock] -> [%s,%s,%s]",i,timestamp,stock);
+            }
 
-                    entries.add(new Entry(i, stock));
+            LineDataSet dataSet = new LineDataSet(entries,mSymbol);
+            dataSet.setAxisDependency(YAxis.AxisDependency.LEFT);
+            dataSet.setColor(ContextCompat.getColor(this,R.color.colorAccent));
+            dataSet.setValueTextColor(ContextCompat.getColor(this,android.R.color.white));
 
-                    formattedStockTs.add(SIMPLE_DATE_FORMAT.format(new Date(timestamp)));
-                    Timber.d("[count, timestamp, stock] -> [%s,%s,%s]",i,timestamp,stock);
+            //Formatting X axis values
+            IAxisValueFormatter xAxisFormatter = new IAxisValueFormatter() {
+                @Override
+                public String getFormattedValue(float value, AxisBase axis) {
+                    return formattedStockTs.get((int)value);
                 }
+            };
 
-                LineDataSet dataSet = new LineDataSet(entries,mSymbol);
-                dataSet.setAxisDependency(YAxis.AxisDependency.LEFT);
-                dataSet.setColor(ContextCompat.getColor(this,R.color.colorAccent));
-                dataSet.setValueTextColor(ContextCompat.getColor(this,android.R.color.white));
-
-                //Formatting X axis values
-                IAxisValueFormatter xAxisFormatter = new IAxisValueFormatter() {
-                    @Override
-                    public String getFormattedValue(float value, AxisBase axis) {
-                        return formattedStockTs.get((int)value);
-                    }
-                };
-
-                LineData lineData = new LineData(dataSet);
-                stockChart.setData(lineData);
-                stockChart.getDescription().setEnabled(false);
+            LineData lineData = new LineData(dataSet);
+            stockChart.setData(lineData);
+            stockChart.getDescription().setEnabled(false);
 
-                XAxis xAxis = stockChart.getXAxis();
-                xAxis.setGranularity(1f);
-                xAxis.setValueFormatter(xAxisFormatter);
-                xAxis.setTextColor(ContextCompat.getColor(this,android.R.color.white));
+            XAxis xAxis = stockChart.getXAxis();
+            xAxis.setGranularity(1f);
+            xAxis.setValueFormatter(xAxisFormatter);
+            xAxis.setTextColor(ContextCompat.getColor(this,android.R.color.white));
 
-                stockChart.getAxisLeft().setTextColor(ContextCompat.getColor(this,android.R.color.white));
-                stockChart.getAxisRight().setTextColor(ContextCompat.getColor(this,android.R.color.white));
-                stockChart.getLegend().setTextColor(ContextCompat.getColor(this,android.R.color.white));
+            stockChart.getAxisLeft().setTextColor(ContextCompat.getColor(this,android.R.color.white));
+            stockChart.getAxisRight().setTextColor(ContextCompat.getColor(this,android.R.color.white));
+            stockChart.getLegend().setTextColor(ContextCompat.getColor(this,android.R.color.white));
 
 
-                stockChart.invalidate();
-                showChart();
-            }
-            catch (IOException ex){
-                Timber.e("Error retrieving historical stock price",ex);
-                showError();
-            }
+            stockChart.invalidate();
+            showChart();
         }
         else{
             showError();
@@ -165,6 +182,14 @@ public class DetailStockActivity extends AppCompatActivity implements LoaderMana
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        for (int range = 0; range < RANGE_ITEMS.length; range++) {
+            if (RANGE_ITEMS[range] == item.getItemId()) {
+                mRange = range;
+                item.setChecked(true);
+                getSupportLoaderManager().restartLoader(STOCK_LOADER, null, this);
+                return true;
+            }
+        }
         if(android.R.id.home == item.getItemId() && mOrigin.equals(StockHawkWidgetProvider.ORIGIN_WIDGET)){
             Intent intent = new Intent(this,MainActivity.class);
             startActivity(intent);
@@ -1,13 +1,16 @@
 package com.udacity.stockhawk.ui;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.v4.content.Loader;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AppCompatActivity;
@@ -20,9 +23,11 @@ import android.view.View;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.udacity.stockhawk.BuildConfig;
 import com.udacity.stockhawk.R;
 import com.udacity.stockhawk.data.Contract;
 import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.sync.QuoteStreamer;
 import com.udacity.stockhawk.sync.QuoteSyncJob;
 
 import butterknife.BindView;
@@ -44,6 +49,14 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     @BindView(R.id.error)
     TextView error;
     private StockAdapter adapter;
+    private QuoteStreamer streamer;
+    private final BroadcastReceiver syncFinishedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // An unchanged sync doesn't reload the list, so this is what stops the spinner.
+            swipeRefreshLayout.setRefreshing(false);
+        }
+    };
 
     @Override
     public void onClick(String symbol) {
@@ -61,6 +74,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         setContentView(R.layout.activity_main);
         ButterKnife.bind(this);
 
+        streamer = new QuoteStreamer(this);
         adapter = new StockAdapter(this, this);
         stockRecyclerView.setAdapter(adapter);
         stockRecyclerView.setLayoutManager(new LinearLayoutManager(this));
@@ -82,13 +96,29 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
                 String symbol = adapter.getSymbolAtPosition(viewHolder.getAdapterPosition());
                 PrefUtils.removeStock(MainActivity.this, symbol);
-                getContentResolver().delete(Contract.Quote.makeUriForStock(symbol), null, null);
             }
         }).attachToRecyclerView(stockRecyclerView);
 
 
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        LocalBroadcastManager.getInstance(this).registerReceiver(syncFinishedReceiver,
+                new IntentFilter(QuoteSyncJob.ACTION_SYNC_FINISHED));
+        if (PrefUtils.isStreamingEnabled(this)) {
+            streamer.start();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        streamer.stop();
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(syncFinishedReceiver);
+        super.onStop();
+    }
+
     private boolean networkUp() {
         ConnectivityManager cm =
                 (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -139,9 +169,9 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         return new CursorLoader(this,
-                Contract.Quote.URI,
-                Contract.Quote.QUOTE_COLUMNS.toArray(new String[]{}),
-                null, null, Contract.Quote.COLUMN_SYMBOL);
+                Contract.Quote.SUMMARY_URI,
+                Contract.Quote.SUMMARY_COLUMNS.toArray(new String[]{}),
+                null, null, null);
     }
 
     @Override
@@ -176,6 +206,8 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         getMenuInflater().inflate(R.menu.main_activity_settings, menu);
         MenuItem item = menu.findItem(R.id.action_change_units);
         setDisplayModeMenuItemIcon(item);
+        menu.findItem(R.id.action_streaming).setChecked(PrefUtils.isStreamingEnabled(this));
+        menu.findItem(R.id.action_sync_metrics).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -188,6 +220,19 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             setDisplayModeMenuItemIcon(item);
             adapter.notifyDataSetChanged();
             return true;
+        } else if (id == R.id.action_streaming) {
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            PrefUtils.setStreamingEnabled(this, enabled);
+            if (enabled) {
+                streamer.start();
+            } else {
+                streamer.stop();
+            }
+            return true;
+        } else if (id == R.id.action_sync_metrics) {
+            startActivity(new Intent(this, SyncMetricsActivity.class));
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
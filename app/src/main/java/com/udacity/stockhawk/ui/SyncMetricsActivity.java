@@ -0,0 +1,71 @@
+package com.udacity.stockhawk.ui;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.sync.SyncMetricsLog;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+
+/**
+ * Debug screen listing the metrics of the last sync runs, newest first. The raw runs can be
+ * shared as JSON.
+ */
+public class SyncMetricsActivity extends AppCompatActivity {
+
+    @BindView(R.id.sync_metrics)
+    TextView metrics;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_sync_metrics);
+
+        ButterKnife.bind(this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.sync_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+
+        if (id == R.id.action_export_metrics) {
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType("text/plain");
+            intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.sync_metrics_export_subject));
+            intent.putExtra(Intent.EXTRA_TEXT, SyncMetricsLog.dump(this));
+            startActivity(Intent.createChooser(intent, getString(R.string.action_export_metrics)));
+            return true;
+        } else if (id == R.id.action_clear_metrics) {
+            SyncMetricsLog.clear(this);
+            showMetrics();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showMetrics() {
+        String description = SyncMetricsLog.describe(this);
+        metrics.setText(TextUtils.isEmpty(description)
+                ? getString(R.string.sync_metrics_empty)
+                : description);
+    }
+}
@@ -61,12 +61,11 @@ public class StockHawkService extends RemoteViewsService {
             }
             long identityToken = Binder.clearCallingIdentity();
 
-            QuoteSyncJob.syncImmediately(mContext);
             QuoteSyncJob.initialize(mContext);
 
-            items = mContext.getContentResolver().query(Contract.Quote.URI,
-                    Contract.Quote.QUOTE_COLUMNS.toArray(new String[]{}),
-                    null, null, Contract.Quote.COLUMN_SYMBOL);
+            items = mContext.getContentResolver().query(Contract.Quote.SUMMARY_URI,
+                    Contract.Quote.SUMMARY_COLUMNS.toArray(new String[]{}),
+                    null, null, null);
             Binder.restoreCallingIdentity(identityToken);
         }
 
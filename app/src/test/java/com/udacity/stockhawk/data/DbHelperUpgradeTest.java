@@ -0,0 +1,340 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.preference.PreferenceManager;
+
+import com.udacity.stockhawk.BuildConfig;
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.Contract.History;
+import com.udacity.stockhawk.data.Contract.Quote;
+import com.udacity.stockhawk.data.Contract.Watchlist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Creates the database every released version left behind, with rows in it, and checks that
+ * upgrading it to the current version keeps the rows and ends up with the same tables, indexes
+ * and triggers as a fresh install.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class DbHelperUpgradeTest {
+
+    private static final String NAME = "StockHawk.db";
+
+    // Wednesday 2016-06-01 and the Wednesday after, UTC.
+    private static final long DAY_1 = 1464739200000L;
+    private static final long DAY_2 = DAY_1 + 7 * 24 * 60 * 60 * 1000L;
+
+    // Versions 1 to 3: history was weekly closes in a CSV column of the quotes table.
+    private static final String QUOTES_V1 = "CREATE TABLE quotes ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, symbol TEXT NOT NULL, price REAL NOT NULL, "
+            + "absolute_change REAL NOT NULL, percentage_change REAL NOT NULL, "
+            + "history TEXT NOT NULL, UNIQUE (symbol) ON CONFLICT REPLACE);";
+    private static final String QUOTES_V2 = "CREATE TABLE quotes ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, symbol TEXT NOT NULL, price REAL NOT NULL, "
+            + "absolute_change REAL NOT NULL, percentage_change REAL NOT NULL, "
+            + "history TEXT NOT NULL, fingerprint INTEGER NOT NULL DEFAULT 0, "
+            + "UNIQUE (symbol) ON CONFLICT REPLACE);";
+    private static final String QUOTES_V3 = "CREATE TABLE quotes ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, symbol TEXT NOT NULL, price REAL NOT NULL, "
+            + "absolute_change REAL NOT NULL, percentage_change REAL NOT NULL, "
+            + "history TEXT NOT NULL DEFAULT '', fingerprint INTEGER NOT NULL DEFAULT 0, "
+            + "UNIQUE (symbol) ON CONFLICT REPLACE);";
+    // Version 4: full bars, one CSV column per resolution.
+    private static final String QUOTES_V4 = "CREATE TABLE quotes ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, symbol TEXT NOT NULL, price REAL NOT NULL, "
+            + "absolute_change REAL NOT NULL, percentage_change REAL NOT NULL, "
+            + "history TEXT NOT NULL DEFAULT '', history_daily TEXT NOT NULL DEFAULT '', "
+            + "history_monthly TEXT NOT NULL DEFAULT '', fingerprint INTEGER NOT NULL DEFAULT 0, "
+            + "UNIQUE (symbol) ON CONFLICT REPLACE);";
+    // Versions 5 and 6: history moved into a table of its own.
+    private static final String QUOTES_V5 = "CREATE TABLE quotes ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, symbol TEXT NOT NULL, price REAL NOT NULL, "
+            + "absolute_change REAL NOT NULL, percentage_change REAL NOT NULL, "
+            + "fingerprint INTEGER NOT NULL DEFAULT 0, UNIQUE (symbol) ON CONFLICT REPLACE);";
+    // Versions 7 and 8: symbols no longer replaced on conflict.
+    private static final String QUOTES_V7 = "CREATE TABLE quotes ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, symbol TEXT NOT NULL, price REAL NOT NULL, "
+            + "absolute_change REAL NOT NULL, percentage_change REAL NOT NULL, "
+            + "fingerprint INTEGER NOT NULL DEFAULT 0, UNIQUE (symbol));";
+    private static final String HISTORY_V5 = "CREATE TABLE history ("
+            + "symbol TEXT NOT NULL, resolution INTEGER NOT NULL, timestamp INTEGER NOT NULL, "
+            + "open REAL NOT NULL, high REAL NOT NULL, low REAL NOT NULL, close REAL NOT NULL, "
+            + "volume INTEGER NOT NULL, PRIMARY KEY (symbol, resolution, timestamp)) WITHOUT ROWID;";
+    private static final String HISTORY_TRIGGER_V5 = "CREATE TRIGGER quotes_delete_history "
+            + "AFTER DELETE ON quotes BEGIN DELETE FROM history WHERE symbol = OLD.symbol; END;";
+    private static final String SEGMENTS_V6 = "CREATE TABLE history_segments ("
+            + "symbol TEXT NOT NULL, resolution INTEGER NOT NULL, year_start INTEGER NOT NULL, "
+            + "last_timestamp INTEGER NOT NULL, data BLOB NOT NULL, "
+            + "PRIMARY KEY (symbol, resolution, year_start)) WITHOUT ROWID;";
+    private static final String HISTORY_TRIGGER_V6 = "CREATE TRIGGER quotes_delete_history "
+            + "AFTER DELETE ON quotes BEGIN DELETE FROM history WHERE symbol = OLD.symbol; "
+            + "DELETE FROM history_segments WHERE symbol = OLD.symbol; END;";
+    private static final String WATCHLIST_V8 = "CREATE TABLE watchlist ("
+            + "symbol TEXT NOT NULL PRIMARY KEY, sort_order INTEGER NOT NULL, "
+            + "added_at INTEGER NOT NULL, failures INTEGER NOT NULL DEFAULT 0, "
+            + "retry_at INTEGER NOT NULL DEFAULT 0, error TEXT, "
+            + "history_at INTEGER NOT NULL DEFAULT 0, views INTEGER NOT NULL DEFAULT 0) WITHOUT ROWID;";
+    private static final String WATCHLIST_INDEX_V8 =
+            "CREATE INDEX watchlist_sort_order ON watchlist (sort_order);";
+    private static final String WATCHLIST_TRIGGER_V8 = "CREATE TRIGGER watchlist_delete_quote "
+            + "AFTER DELETE ON watchlist BEGIN DELETE FROM quotes WHERE symbol = OLD.symbol; END;";
+
+    private static final String[][] SCHEMAS = {
+            {},
+            {QUOTES_V1},
+            {QUOTES_V2},
+            {QUOTES_V3},
+            {QUOTES_V4},
+            {QUOTES_V5, HISTORY_V5, HISTORY_TRIGGER_V5},
+            {QUOTES_V5, HISTORY_V5, SEGMENTS_V6, HISTORY_TRIGGER_V6},
+            {QUOTES_V7, HISTORY_V5, SEGMENTS_V6, HISTORY_TRIGGER_V6},
+            {QUOTES_V7, HISTORY_V5, SEGMENTS_V6, HISTORY_TRIGGER_V6,
+                    WATCHLIST_V8, WATCHLIST_INDEX_V8, WATCHLIST_TRIGGER_V8},
+    };
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(NAME);
+    }
+
+    @Test
+    public void upgradesFromVersion1() {
+        assertUpgrade(1);
+    }
+
+    @Test
+    public void upgradesFromVersion2() {
+        assertUpgrade(2);
+    }
+
+    @Test
+    public void upgradesFromVersion3() {
+        assertUpgrade(3);
+    }
+
+    @Test
+    public void upgradesFromVersion4() {
+        assertUpgrade(4);
+    }
+
+    @Test
+    public void upgradesFromVersion5() {
+        assertUpgrade(5);
+    }
+
+    @Test
+    public void upgradesFromVersion6() {
+        assertUpgrade(6);
+    }
+
+    @Test
+    public void upgradesFromVersion7() {
+        assertUpgrade(7);
+    }
+
+    @Test
+    public void upgradesFromVersion8() {
+        assertUpgrade(8);
+    }
+
+    private void assertUpgrade(int version) {
+        Set<String> freshSchema = getFreshSchema();
+        createDatabase(version);
+
+        DbHelper helper = new DbHelper(context);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertQuote(db, "AAPL", 150.25);
+            assertQuote(db, "MSFT", 60.5);
+            assertWatched(db, "AAPL", 0, version >= 7 ? 3 : 0);
+            assertWatched(db, "MSFT", 1, 0);
+
+            int resolution = version >= 4 ? History.RESOLUTION_DAILY : History.RESOLUTION_WEEKLY;
+            assertBars(db, "AAPL", resolution, DAY_1, DAY_2);
+            assertBars(db, "MSFT", resolution, DAY_1, DAY_2);
+            if (version == 4) {
+                assertBars(db, "AAPL", History.RESOLUTION_WEEKLY, DAY_1);
+                assertBars(db, "AAPL", History.RESOLUTION_MONTHLY, DAY_1);
+            }
+
+            assertEquals(freshSchema, getSchema(db));
+        } finally {
+            helper.close();
+        }
+    }
+
+    // What a fresh install creates, the database is deleted again afterwards.
+    private Set<String> getFreshSchema() {
+        DbHelper helper = new DbHelper(context);
+        try {
+            return getSchema(helper.getReadableDatabase());
+        } finally {
+            helper.close();
+            context.deleteDatabase(NAME);
+        }
+    }
+
+    /**
+     * The database as the given version created it, watching AAPL and MSFT with two bars of
+     * history each. Until version 8 the watchlist and its sync state are in preferences.
+     */
+    private void createDatabase(int version) {
+        File file = context.getDatabasePath(NAME);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            for (String sql : SCHEMAS[version]) {
+                db.execSQL(sql);
+            }
+            insertQuote(db, version, "AAPL", 150.25);
+            insertQuote(db, version, "MSFT", 60.5);
+            if (version >= 5) {
+                insertBar(db, "AAPL", DAY_1);
+                insertBar(db, "AAPL", DAY_2);
+                insertBar(db, "MSFT", DAY_1);
+                insertBar(db, "MSFT", DAY_2);
+            }
+            if (version >= 8) {
+                insertWatched(db, "AAPL", 0, 3);
+                insertWatched(db, "MSFT", 1, 0);
+            }
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+
+        if (version < 8) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            prefs.edit()
+                    .putStringSet(context.getString(R.string.pref_stocks_key),
+                            new HashSet<>(Arrays.asList("MSFT", "AAPL")))
+                    .putBoolean(context.getString(R.string.pref_stocks_initialized_key), true)
+                    .commit();
+        }
+        if (version == 7) {
+            context.getSharedPreferences("sync_state", Context.MODE_PRIVATE).edit()
+                    .putLong("AAPL.views", 3)
+                    .commit();
+        }
+    }
+
+    private static void insertQuote(SQLiteDatabase db, int version, String symbol, double price) {
+        ContentValues values = new ContentValues();
+        values.put(Quote.COLUMN_SYMBOL, symbol);
+        values.put(Quote.COLUMN_PRICE, price);
+        values.put(Quote.COLUMN_ABSOLUTE_CHANGE, 1.5);
+        values.put(Quote.COLUMN_PERCENTAGE_CHANGE, 1.0);
+        if (version < 4) {
+            values.put("history", DAY_1 + ", 10.5\n" + DAY_2 + ", 11.5\n");
+        } else if (version == 4) {
+            values.put("history_daily", DAY_1 + ",10,11,9,10.5,1000\n" + DAY_2 + ",10.5,12,10,11.5,2000\n");
+            values.put("history", DAY_1 + ",10,12,9,11.5,3000\n");
+            values.put("history_monthly", DAY_1 + ",10,12,9,11.5,3000\n");
+        }
+        db.insertOrThrow(Quote.TABLE_NAME, null, values);
+    }
+
+    private static void insertBar(SQLiteDatabase db, String symbol, long timestamp) {
+        ContentValues values = new ContentValues();
+        values.put(History.COLUMN_SYMBOL, symbol);
+        values.put(History.COLUMN_RESOLUTION, History.RESOLUTION_DAILY);
+        values.put(History.COLUMN_TIMESTAMP, timestamp);
+        values.put(History.COLUMN_OPEN, 10);
+        values.put(History.COLUMN_HIGH, 12);
+        values.put(History.COLUMN_LOW, 9);
+        values.put(History.COLUMN_CLOSE, 11);
+        values.put(History.COLUMN_VOLUME, 1000);
+        db.insertOrThrow(History.TABLE_NAME, null, values);
+    }
+
+    private static void insertWatched(SQLiteDatabase db, String symbol, int sortOrder, int views) {
+        ContentValues values = new ContentValues();
+        values.put(Watchlist.COLUMN_SYMBOL, symbol);
+        values.put(Watchlist.COLUMN_SORT_ORDER, sortOrder);
+        values.put(Watchlist.COLUMN_ADDED_AT, DAY_1);
+        values.put(Watchlist.COLUMN_VIEWS, views);
+        db.insertOrThrow(Watchlist.TABLE_NAME, null, values);
+    }
+
+    private static void assertQuote(SQLiteDatabase db, String symbol, double price) {
+        Cursor cursor = db.query(Quote.TABLE_NAME, new String[]{Quote.COLUMN_PRICE},
+                Quote.COLUMN_SYMBOL + " = ?", new String[]{symbol}, null, null, null);
+        try {
+            assertTrue("No quote for " + symbol, cursor.moveToFirst());
+            assertEquals(price, cursor.getDouble(0), 0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertWatched(SQLiteDatabase db, String symbol, int sortOrder, int views) {
+        Cursor cursor = db.query(Watchlist.TABLE_NAME,
+                new String[]{Watchlist.COLUMN_SORT_ORDER, Watchlist.COLUMN_VIEWS},
+                Watchlist.COLUMN_SYMBOL + " = ?", new String[]{symbol}, null, null, null);
+        try {
+            assertTrue(symbol + " not watched", cursor.moveToFirst());
+            assertEquals(sortOrder, cursor.getInt(0));
+            assertEquals(views, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Rows and sealed segments alike, as the provider reads them.
+    private static void assertBars(SQLiteDatabase db, String symbol, int resolution,
+                                   long... timestamps) {
+        Cursor cursor = HistoryStore.query(db, symbol, resolution, 0, Long.MAX_VALUE,
+                new String[]{History.COLUMN_TIMESTAMP});
+        try {
+            assertEquals(timestamps.length, cursor.getCount());
+            for (long timestamp : timestamps) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(timestamp, cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Every table, index and trigger by name, shadow tables of the symbol directory included.
+    private static Set<String> getSchema(SQLiteDatabase db) {
+        Set<String> schema = new TreeSet<>();
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + " on " + cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+}
@@ -0,0 +1,79 @@
+package com.udacity.stockhawk.sync;
+
+import com.udacity.stockhawk.BuildConfig;
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.StockProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class QuoteStreamerTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+    // Long enough for a reader that should have stopped to reconnect.
+    private static final long SETTLE_MILLIS = 1500;
+
+    private TickFeedServer feed;
+    private QuoteStreamer streamer;
+
+    @Before
+    public void setUp() throws Exception {
+        Robolectric.buildContentProvider(StockProvider.class).create(Contract.AUTHORITY);
+        feed = TickFeedServer.start(50);
+        streamer = new QuoteStreamer(RuntimeEnvironment.application, feed.getUrl());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        streamer.stop();
+        feed.close();
+    }
+
+    @Test
+    public void streamsOverOneConnection() throws Exception {
+        streamer.start();
+        streamer.start();
+
+        assertTrue(feed.awaitOpenConnections(1, TIMEOUT_MILLIS));
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals(1, feed.getOpenConnections());
+    }
+
+    @Test
+    public void stopClosesTheConnection() throws Exception {
+        streamer.start();
+        assertTrue(feed.awaitOpenConnections(1, TIMEOUT_MILLIS));
+
+        streamer.stop();
+
+        assertTrue(feed.awaitOpenConnections(0, TIMEOUT_MILLIS));
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals(0, feed.getOpenConnections());
+    }
+
+    @Test
+    public void restartLeavesOneReader() throws Exception {
+        streamer.start();
+        assertTrue(feed.awaitOpenConnections(1, TIMEOUT_MILLIS));
+
+        for (int i = 0; i < 10; i++) {
+            streamer.stop();
+            streamer.start();
+        }
+
+        assertTrue(feed.awaitOpenConnections(1, TIMEOUT_MILLIS));
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals(1, feed.getOpenConnections());
+    }
+}
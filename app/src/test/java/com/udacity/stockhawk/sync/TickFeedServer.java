@@ -0,0 +1,169 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Stand-in for the tick feed. Every connection gets a random walk of ticks for the symbols it
+ * asked for, and the server counts the connections that are open.
+ */
+final class TickFeedServer implements Closeable {
+
+    private final ServerSocket server;
+    private final int ticksPerSecond;
+    private int openConnections;
+
+    private TickFeedServer(ServerSocket server, int ticksPerSecond) {
+        this.server = server;
+        this.ticksPerSecond = ticksPerSecond;
+    }
+
+    /**
+     * Starts serving on a free local port.
+     */
+    static TickFeedServer start(int ticksPerSecond) throws IOException {
+        final TickFeedServer feed = new TickFeedServer(
+                new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")), ticksPerSecond);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                feed.accept();
+            }
+        }, "TickFeedServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return feed;
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getLocalPort() + "/ticks";
+    }
+
+    synchronized int getOpenConnections() {
+        return openConnections;
+    }
+
+    /**
+     * Waits until exactly count connections are open, returns false if that didn't happen in
+     * time.
+     */
+    synchronized boolean awaitOpenConnections(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (openConnections != count) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread connection = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    changeOpenConnections(1);
+                    try {
+                        serve(socket);
+                    } catch (IOException | InterruptedException e) {
+                        // The client went away.
+                    } finally {
+                        changeOpenConnections(-1);
+                    }
+                }
+            });
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    private synchronized void changeOpenConnections(int delta) {
+        openConnections += delta;
+        notifyAll();
+    }
+
+    private void serve(Socket socket) throws IOException, InterruptedException {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String request = in.readLine();
+            String line;
+            do {
+                line = in.readLine();
+            } while (line != null && !line.isEmpty());
+
+            String[] symbols = parseSymbols(request);
+            OutputStream out = socket.getOutputStream();
+            out.write("HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\n\r\n".getBytes("UTF-8"));
+            PrintWriter writer = new PrintWriter(out, true);
+
+            Random random = new Random();
+            Map<String, Double> opens = new HashMap<>();
+            Map<String, Double> prices = new HashMap<>();
+            for (String symbol : symbols) {
+                double open = 10 + random.nextInt(490);
+                opens.put(symbol, open);
+                prices.put(symbol, open);
+            }
+
+            // Without symbols it keeps writing empty lines, so a client that went away is seen.
+            while (!writer.checkError()) {
+                if (symbols.length == 0) {
+                    writer.println();
+                } else {
+                    String symbol = symbols[random.nextInt(symbols.length)];
+                    double open = opens.get(symbol);
+                    double price = prices.get(symbol) * (1 + random.nextGaussian() * 0.001);
+                    prices.put(symbol, price);
+                    writer.println(String.format(Locale.US, "%s,%.2f,%.2f,%.2f",
+                            symbol, price, price - open, (price - open) * 100 / open));
+                }
+                Thread.sleep(1000 / ticksPerSecond);
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static String[] parseSymbols(String request) throws IOException {
+        if (request == null) {
+            return new String[0];
+        }
+        int start = request.indexOf("symbols=");
+        if (start < 0) {
+            return new String[0];
+        }
+        int end = request.indexOf(' ', start);
+        String value = request.substring(start + "symbols=".length(), end < 0 ? request.length() : end);
+        int amp = value.indexOf('&');
+        if (amp >= 0) {
+            value = value.substring(0, amp);
+        }
+        value = URLDecoder.decode(value, "UTF-8");
+        return value.isEmpty() ? new String[0] : value.split(",");
+    }
+}